@@ -0,0 +1,179 @@
+package com.harkerhand.backend.server;
+
+import com.harkerhand.backend.log.UserActivityLogger;
+import com.harkerhand.backend.protocol.BinaryCodec;
+import com.harkerhand.backend.protocol.JsonCodec;
+import com.harkerhand.backend.protocol.Request;
+import com.harkerhand.backend.protocol.Response;
+import com.harkerhand.backend.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 请求分发的端到端基准测试
+ * 每次操作解码一帧请求、经 ClientHandler.handle 完成令牌校验、限流检查、账户更新和活动记录，再编码响应，
+ * 不经过网络。accounts=1 时所有线程更新同一个账户，用 -t 指定线程数:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main DispatchBenchmark -t 1,4,8 -p protocol=binary
+ *
+ * handle 是包内方法，所以基准测试放在 server 包中。每个线程一个 ClientHandler，相当于一个连接；
+ * 请求带登录时发放的令牌，可以在任意连接上使用。请求日志关闭，限流关闭，日志不刷盘。
+ * 基准测试会在当前目录读写 accounts.db、journal/ 和 logs/，请在空目录中运行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Datm.journal.fsync=none", "-Datm.password.iterations=0",
+        "-Datm.rateLimit.enabled=false" })
+public class DispatchBenchmark {
+    @Param({ "json", "binary" })
+    public String protocol;
+
+    @Param({ "query", "deposit" })
+    public String action;
+
+    @Param({ "1", "1024" })
+    public int accounts;
+
+    private ServerSocket listener;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private TimingWheel timer;
+    private SessionRegistry sessions;
+    private RequestThrottle throttle;
+    private byte[][] frames;
+
+    /**
+     * 每个线程的连接
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        ClientHandler handler;
+        JsonCodec codec;
+        JsonCodec.FrameWriter writer;
+
+        @Setup(Level.Trial)
+        public void open(DispatchBenchmark benchmark, Blackhole blackhole) throws IOException {
+            handler = benchmark.connect();
+            codec = new JsonCodec();
+            writer = (bytes, offset, length) -> blackhole.consume(bytes[offset + length - 1]);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // 控制台上的请求日志会淹没被测的代码
+        Logger.getLogger("ClientHandler").setLevel(java.util.logging.Level.WARNING);
+        UserStorage.loadUsers();
+        UserActivityLogger.initialize(UserStorage::userExists);
+        timer = new TimingWheel("bench-timer", 1000, 64);
+        sessions = new SessionRegistry(0, timer);
+        throttle = RequestThrottle.fromConfig();
+        listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        ClientHandler login = connect();
+        frames = new byte[accounts][];
+        for (int i = 0; i < accounts; i++) {
+            String username = "bench-" + i;
+            if (!UserStorage.userExists(username)) {
+                UserStorage.addUser(username, "password");
+                UserStorage.deposit(username, 100_000_000);
+            }
+            Request request = new Request();
+            request.setAction("login");
+            request.setUsername(username);
+            request.setPassword("password");
+            Response response = login.handle(request);
+            if (response.getToken() == null) {
+                throw new IllegalStateException("登录失败: " + response.getMessage());
+            }
+            frames[i] = "json".equals(protocol)
+                    ? jsonFrame(username, response.getToken())
+                    : binaryFrame(username, response.getToken());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        listener.close();
+        timer.stop();
+        UserStorage.saveUsers();
+        UserStorage.close();
+        UserActivityLogger.shutdown();
+    }
+
+    /**
+     * 建立一条本机连接，返回服务器一侧的处理器
+     */
+    ClientHandler connect() throws IOException {
+        Socket client = new Socket(listener.getInetAddress(), listener.getLocalPort());
+        Socket server = listener.accept();
+        sockets.add(client);
+        sockets.add(server);
+        return new ClientHandler(server, sessions, throttle);
+    }
+
+    private byte[] jsonFrame(String username, String token) {
+        String json = "{\"action\":\"" + action + "\",\"username\":\"" + username + "\",\"token\":\"" + token + "\""
+                + ("deposit".equals(action) ? ",\"amount\":0.01}" : "}");
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] binaryFrame(String username, String token) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // 令牌和用户名都是 ASCII，writeUTF 的格式与协议中的字符串相同
+        out.writeByte(BinaryCodec.opcode(action));
+        out.writeByte(BinaryCodec.FLAG_TOKEN);
+        out.writeUTF(token);
+        out.writeUTF(username);
+        if ("deposit".equals(action)) {
+            out.writeLong(1);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public void dispatch(Connection connection, Blackhole blackhole) throws IOException {
+        byte[] frame = frames[ThreadLocalRandom.current().nextInt(frames.length)];
+        if ("json".equals(protocol)) {
+            Request request = connection.codec.decode(frame, 0, frame.length);
+            Response response = connection.handler.handle(request);
+            connection.codec.encode(response, connection.writer);
+            connection.codec.release(request);
+        } else {
+            Response response = connection.handler.handle(BinaryCodec.decode(ByteBuffer.wrap(frame)));
+            blackhole.consume(BinaryCodec.encode(response));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.harkerhand.benchmark;
+
+import com.harkerhand.backend.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 余额更新的竞争基准测试
+ * 多个线程对 accounts 个账户随机存取款，accounts=1 时所有线程争用同一把账户锁，
+ * 账户数越多越接近无竞争。用 -t 指定线程数观察吞吐随核数的变化:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main BalanceContentionBenchmark -t 1,2,4,8
+ *
+ * 基准测试会在当前目录读写 accounts.db 和 journal/，请在空目录中运行。
+ * 日志不刷盘，测量的是加锁和提交到日志队列的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Datm.journal.fsync=none")
+public class BalanceContentionBenchmark {
+    @Param({ "1", "16", "1024" })
+    public int accounts;
+
+    private String[] usernames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        UserStorage.loadUsers();
+        usernames = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            usernames[i] = "bench-" + i;
+            if (!UserStorage.userExists(usernames[i])) {
+                UserStorage.addUser(usernames[i], "password");
+            }
+            UserStorage.deposit(usernames[i], 100_000_000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UserStorage.saveUsers();
+        UserStorage.close();
+    }
+
+    @Benchmark
+    public long depositAndWithdraw() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String username = usernames[random.nextInt(usernames.length)];
+        // 偶尔余额不足时走拒绝分支，同样在锁内完成
+        return random.nextBoolean() ? UserStorage.deposit(username, 100) : UserStorage.withdraw(username, 100);
+    }
+}
@@ -0,0 +1,70 @@
+package com.harkerhand.benchmark;
+
+import com.harkerhand.backend.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检查点（UserStorage.saveUsers）的基准测试
+ * 对 accounts 个账户写一次完整快照并回收日志，观察耗时随账户数的增长:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main CheckpointBenchmark -p accounts=1000000
+ *
+ * 每次迭代前先为一部分账户存款，让日志中有待回收的分段。
+ * 基准测试会在当前目录读写 accounts.db 和 journal/，请在空目录中运行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Datm.journal.fsync=none", "-Datm.password.iterations=0" })
+public class CheckpointBenchmark {
+    private static final int DIRTY_ACCOUNTS = 1000;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int accounts;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        UserStorage.loadUsers();
+        for (int i = 0; i < accounts; i++) {
+            String username = "bench-" + i;
+            if (!UserStorage.userExists(username)) {
+                UserStorage.addUser(username, "password");
+                UserStorage.deposit(username, 100_000_000);
+            }
+        }
+        UserStorage.saveUsers();
+    }
+
+    @Setup(Level.Iteration)
+    public void dirty() {
+        for (int i = 0; i < Math.min(DIRTY_ACCOUNTS, accounts); i++) {
+            UserStorage.deposit("bench-" + i, 100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UserStorage.close();
+    }
+
+    @Benchmark
+    public void saveUsers() {
+        UserStorage.saveUsers();
+    }
+}
@@ -0,0 +1,83 @@
+package com.harkerhand.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 比较两次基准测试的结果
+ * 读取 JMH 以 -rf json 输出的结果文件，按基准测试、参数和线程数配对，打印每项的变化。
+ * 吞吐模式（thrpt）越大越好，其他模式越小越好；变差超过阈值（默认 10%）的项标记为 REGRESSION，
+ * 并以退出码 1 结束，便于在构建中比较前后两次运行:
+ *
+ * java -jar atm-benchmarks.jar -rf json -rff current.json
+ * java -cp atm-benchmarks.jar com.harkerhand.benchmark.CompareResults baseline.json current.json [阈值%]
+ */
+public class CompareResults {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: CompareResults <基准结果.json> <本次结果.json> [阈值%]");
+            System.exit(2);
+        }
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> current = load(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        int regressions = 0;
+        System.out.printf("%-80s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            JsonNode after = entry.getValue();
+            double score = after.path("primaryMetric").path("score").asDouble();
+            String unit = after.path("primaryMetric").path("scoreUnit").asText();
+            if (before == null) {
+                System.out.printf("%-80s %14s %14.3f %9s  %s%n", entry.getKey(), "-", score, "new", unit);
+                continue;
+            }
+            double previous = before.path("primaryMetric").path("score").asDouble();
+            double change = previous == 0 ? 0 : (score - previous) / previous * 100;
+            // 吞吐下降或耗时上升都是变差
+            double worse = "thrpt".equals(after.path("mode").asText()) ? -change : change;
+            boolean regression = worse > threshold;
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-80s %14.3f %14.3f %+8.1f%%  %s%s%n", entry.getKey(), previous, score, change, unit,
+                    regression ? "  REGRESSION" : "");
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("%-80s %14s%n", key, "missing");
+            }
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " 项变差超过 " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return 以“基准测试 模式 参数 线程数”为键的结果
+     */
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+                    .replace("com.harkerhand.benchmark.", "").replace("com.harkerhand.backend.", ""));
+            key.append(' ').append(result.path("mode").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            key.append(" t=").append(result.path("threads").asInt());
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,129 @@
+package com.harkerhand.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 空闲连接基准测试
+ * 分别以 thread、virtual、nio 模式启动服务器子进程，建立大量只发送一次请求后就保持空闲的连接，
+ * 然后统计服务器进程的线程数、常驻内存，以及在这些空闲连接存在时单个活跃连接的请求延迟。
+ *
+ * 用法: java -cp atm-benchmarks.jar com.harkerhand.benchmark.IdleConnectionBenchmark [连接数] [模式,...]
+ * 连接数较大时需要提高文件描述符上限（ulimit -n）。
+ */
+public class IdleConnectionBenchmark {
+    private static final int PORT = 18888;
+    private static final int PROBE_REQUESTS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        List<String> modes = Arrays.asList((args.length > 1 ? args[1] : "thread,virtual,nio").split(","));
+
+        System.out.printf("%-8s %12s %10s %12s %12s %12s%n",
+                "mode", "connections", "threads", "rss(MB)", "p50(us)", "p99(us)");
+        for (String mode : modes) {
+            run(mode, connections);
+        }
+    }
+
+    private static void run(String mode, int connections) throws Exception {
+        Path workDir = Files.createTempDirectory("atm-idle-" + mode);
+        Process server = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Datm.server.mode=" + mode,
+                "-Datm.server.port=" + PORT,
+                "-cp", System.getProperty("java.class.path"),
+                "com.harkerhand.backend.server.ATMServer")
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve("server.out").toFile())
+                .start();
+
+        List<Socket> idle = new ArrayList<>(connections);
+        try {
+            waitForServer();
+            for (int i = 0; i < connections; i++) {
+                Socket socket = new Socket("localhost", PORT);
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                out.println("{\"action\":\"query\",\"username\":\"idle\"}");
+                in.readLine();
+                idle.add(socket);
+            }
+            Thread.sleep(2000);
+
+            long[] latencies = probe();
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %12d %10s %12s %12d %12d%n", mode, connections,
+                    procStatus(server.pid(), "Threads:"), rssMegabytes(server.pid()),
+                    latencies[latencies.length / 2] / 1000, latencies[latencies.length * 99 / 100] / 1000);
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static long[] probe() throws IOException {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            long[] latencies = new long[PROBE_REQUESTS];
+            for (int i = 0; i < PROBE_REQUESTS; i++) {
+                long start = System.nanoTime();
+                out.println("{\"action\":\"query\",\"username\":\"probe\"}");
+                in.readLine();
+                latencies[i] = System.nanoTime() - start;
+            }
+            return latencies;
+        }
+    }
+
+    private static void waitForServer() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", PORT).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("服务器未能启动");
+    }
+
+    private static String rssMegabytes(long pid) {
+        String rss = procStatus(pid, "VmRSS:");
+        try {
+            return Long.toString(Long.parseLong(rss.split("\\s+")[0]) / 1024);
+        } catch (NumberFormatException e) {
+            return rss;
+        }
+    }
+
+    /**
+     * 读取 /proc/[pid]/status 中的字段，非 Linux 系统返回 n/a
+     */
+    private static String procStatus(long pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith(field)) {
+                    return line.substring(field.length()).trim();
+                }
+            }
+        } catch (IOException e) {
+            // 不是 Linux
+        }
+        return "n/a";
+    }
+}
@@ -0,0 +1,75 @@
+package com.harkerhand.benchmark;
+
+import com.harkerhand.backend.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * eager 模式利息入账的基准测试
+ * 对 accounts 个余额为正的账户入账一期利息，比较不同 parallelism 下的耗时，观察加速比:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main InterestBenchmark -p accounts=1000000
+ *
+ * 第一次运行某个账户数时会先创建账户并保存 accounts.db，之后的 fork 直接加载，创建 1000 万个账户需要几分钟。
+ * 基准测试会在当前目录读写 accounts.db 和 journal/，请在空目录中运行。
+ * 日志不刷盘，测量的是计息、加锁和提交到日志队列的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Datm.journal.fsync=none", "-Datm.password.iterations=0" })
+public class InterestBenchmark {
+    @Param({ "1000000", "10000000" })
+    public int accounts;
+
+    @Param({ "1", "2", "4", "8" })
+    public int parallelism;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        UserStorage.loadUsers();
+        boolean created = false;
+        for (int i = 0; i < accounts; i++) {
+            String username = "bench-" + i;
+            if (!UserStorage.userExists(username)) {
+                UserStorage.addUser(username, "password");
+                UserStorage.deposit(username, 100_000_000);
+                created = true;
+            }
+        }
+        if (created) {
+            UserStorage.saveUsers();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkpoint() {
+        // 每次迭代后截断日志，下一次迭代不受日志段数量影响
+        UserStorage.saveUsers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UserStorage.close();
+    }
+
+    @Benchmark
+    public int applyInterest() {
+        return UserStorage.applyInterestToAllAccounts(0.0001, parallelism);
+    }
+}
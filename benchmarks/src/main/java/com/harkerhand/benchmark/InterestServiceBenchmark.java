@@ -0,0 +1,79 @@
+package com.harkerhand.benchmark;
+
+import com.harkerhand.backend.service.InterestService;
+import com.harkerhand.backend.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时利息任务（InterestService.run）的基准测试
+ * 比较两种计息模式下一次定时执行的耗时: lazy 只推进全局累计指数，与账户数无关；
+ * eager 按 atm.interest.parallelism 为每个账户入账。各分区并行度的对比见 {@link InterestBenchmark}。
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main InterestServiceBenchmark -p accounts=100000
+ *
+ * 基准测试会在当前目录读写 accounts.db 和 journal/，请在空目录中运行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Datm.journal.fsync=none", "-Datm.password.iterations=0" })
+public class InterestServiceBenchmark {
+    @Param({ "lazy", "eager" })
+    public String mode;
+
+    @Param({ "100000", "1000000" })
+    public int accounts;
+
+    private InterestService service;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // 每次执行时读取，fork 中设置即可生效
+        System.setProperty("atm.interest.mode", mode);
+        UserStorage.loadUsers();
+        boolean created = false;
+        for (int i = 0; i < accounts; i++) {
+            String username = "bench-" + i;
+            if (!UserStorage.userExists(username)) {
+                UserStorage.addUser(username, "password");
+                UserStorage.deposit(username, 100_000_000);
+                created = true;
+            }
+        }
+        if (created) {
+            UserStorage.saveUsers();
+        }
+        service = new InterestService();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkpoint() {
+        UserStorage.saveUsers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UserStorage.close();
+    }
+
+    @Benchmark
+    public void run() {
+        service.run();
+    }
+}
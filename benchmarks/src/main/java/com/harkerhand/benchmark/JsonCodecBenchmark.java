@@ -0,0 +1,85 @@
+package com.harkerhand.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.harkerhand.backend.protocol.JsonCodec;
+import com.harkerhand.backend.protocol.Request;
+import com.harkerhand.backend.protocol.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON 编解码基准测试
+ * 对比流式编解码器与原先 readTree + ObjectNode.toString 的做法在热点请求上的耗时和分配量。
+ * 分配量需要配合 gc 分析器查看（gc.alloc.rate.norm 即每次操作分配的字节数）:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main JsonCodecBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    @Param({ "deposit", "withdraw", "query" })
+    public String action;
+
+    private byte[] frame;
+    private JsonCodec codec;
+    private Response response;
+    private JsonCodec.FrameWriter writer;
+    private Blackhole blackhole;
+    private ObjectMapper mapper;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        String json = "query".equals(action)
+                ? "{\"action\":\"query\",\"username\":\"alice\"}"
+                : "{\"action\":\"" + action + "\",\"username\":\"alice\",\"amount\":125.5}";
+        frame = json.getBytes(StandardCharsets.UTF_8);
+        codec = new JsonCodec();
+        response = "query".equals(action)
+                ? Response.success().balance(102_475)
+                : Response.success().amount(12_550).balance(102_475);
+        this.blackhole = blackhole;
+        writer = (bytes, offset, length) -> this.blackhole.consume(bytes[offset + length - 1]);
+        mapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        Request request = codec.decode(frame, 0, frame.length);
+        blackhole.consume(request.getAmount());
+        codec.encode(response, writer);
+        codec.release(request);
+    }
+
+    @Benchmark
+    public String tree() throws IOException {
+        JsonNode request = mapper.readTree(frame);
+        blackhole.consume(request.path("amount").asDouble());
+        ObjectNode node = mapper.createObjectNode();
+        node.put("status", "success");
+        if (response.hasAmount()) {
+            node.put("amount", response.getAmount());
+        }
+        node.put("balance", response.getBalance());
+        return node.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.harkerhand.benchmark;
+
+import com.harkerhand.backend.security.PasswordService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 密码哈希的基准测试
+ * 经过 password-hasher 线程池计算一次哈希（与登录、注册相同的路径），比较旧版 SHA-256（iterations=0）
+ * 与不同迭代次数的 PBKDF2。用 -t 指定调用线程数，超过线程池大小后吞吐不再增加，延迟随排队增长:
+ *
+ * java -cp atm-benchmarks.jar org.openjdk.jmh.Main PasswordHashBenchmark -t 1,4,16
+ *
+ * 调用线程数超过线程池大小加等待队列长度（atm.password.maxQueue）时请求会被拒绝，基准测试随之失败。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+    @Param({ "0", "20000", "100000" })
+    public int iterations;
+
+    private byte[] salt;
+
+    @Setup
+    public void setup() {
+        salt = PasswordService.newSalt();
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        return PasswordService.hash("correct horse battery staple", salt, iterations);
+    }
+}
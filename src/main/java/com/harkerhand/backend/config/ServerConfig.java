@@ -0,0 +1,306 @@
+package com.harkerhand.backend.config;
+
+import java.util.List;
+
+/**
+ * 服务器配置
+ * 所有可调参数都通过系统属性（-Datm.xxx=...）提供，未设置时使用默认值
+ */
+public class ServerConfig {
+    private static final List<String> JOURNAL_FSYNC_POLICIES = List.of("request", "interval", "records", "none");
+
+    /**
+     * 检查只能取固定几个值的配置项，服务器在初始化任何组件之前调用
+     *
+     * @throws IllegalArgumentException 取值无效，消息中给出属性名和可选值
+     */
+    public static void validate() {
+        journalFsyncPolicy();
+    }
+
+    /**
+     * 用户日志的刷盘策略: request（每批请求刷盘）、interval（按时间间隔）、records（按记录数）、none（不主动刷盘）
+     *
+     * @return 小写的策略名
+     * @throws IllegalArgumentException 取值不是以上之一
+     */
+    public static String journalFsyncPolicy() {
+        String policy = System.getProperty("atm.journal.fsync", "request").trim().toLowerCase();
+        if (!JOURNAL_FSYNC_POLICIES.contains(policy)) {
+            throw new IllegalArgumentException("系统属性 atm.journal.fsync 的值无效: \"" + policy
+                    + "\"，可选值: " + String.join(", ", JOURNAL_FSYNC_POLICIES));
+        }
+        return policy;
+    }
+
+    /**
+     * interval 策略下两次刷盘之间的最大间隔，同时也是 records 策略下的最长等待时间
+     */
+    public static long journalFsyncIntervalMillis() {
+        return Long.getLong("atm.journal.fsync.intervalMs", 10);
+    }
+
+    /**
+     * records 策略下触发刷盘的记录数
+     */
+    public static int journalFsyncRecords() {
+        return Integer.getInteger("atm.journal.fsync.records", 64);
+    }
+
+    /**
+     * 后台检查点的执行间隔（秒）
+     */
+    public static long checkpointIntervalSeconds() {
+        return Long.getLong("atm.checkpoint.intervalSeconds", 30);
+    }
+
+    /**
+     * 当前日志分段至少达到多少字节才执行检查点
+     */
+    public static long checkpointMinJournalBytes() {
+        return Long.getLong("atm.checkpoint.minJournalBytes", 1024 * 1024);
+    }
+
+    /**
+     * 服务器监听端口
+     */
+    public static int serverPort() {
+        return Integer.getInteger("atm.server.port", 8888);
+    }
+
+    /**
+     * 服务器连接处理模式: thread（每个连接一个平台线程）、virtual（每个连接一个虚拟线程）、
+     * nio（Selector + 工作线程池）
+     */
+    public static String serverMode() {
+        return System.getProperty("atm.server.mode", "thread");
+    }
+
+    /**
+     * nio 模式下处理请求的工作线程数
+     */
+    public static int nioWorkerThreads() {
+        return Integer.getInteger("atm.nio.workers", Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * nio 模式下缓冲池保留的空闲缓冲区数量
+     */
+    public static int nioPooledBuffers() {
+        return Integer.getInteger("atm.nio.pooledBuffers", 256);
+    }
+
+    /**
+     * 单个连接上同时处理中的请求上限，包括等待前序请求完成的请求；达到后暂停读取该连接，
+     * 直到有请求处理完成。0 表示不限制
+     */
+    public static int pipelineMaxInFlight() {
+        return Integer.getInteger("atm.pipeline.maxInFlight", 64);
+    }
+
+    /**
+     * thread 模式下处理流水线请求的共享线程数
+     */
+    public static int pipelineWorkerThreads() {
+        return Integer.getInteger("atm.pipeline.workers", Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * batch 请求中允许的子请求数上限
+     */
+    public static int batchMaxRequests() {
+        return Integer.getInteger("atm.batch.maxRequests", 1000);
+    }
+
+    /**
+     * 利息计算方式: lazy（每个周期只推进全局累计指数，账户在读取或修改时补计）、
+     * eager（每个周期立即为所有账户入账）
+     */
+    public static String interestMode() {
+        return System.getProperty("atm.interest.mode", "lazy");
+    }
+
+    /**
+     * eager 模式下并行入账利息的线程数
+     */
+    public static int interestParallelism() {
+        return Integer.getInteger("atm.interest.parallelism", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * eager 模式下每个分区包含的账户槽位数，每个分区的余额记录作为一批提交给日志
+     */
+    public static int interestPartitionSlots() {
+        return Integer.getInteger("atm.interest.partitionSlots", 4096);
+    }
+
+    /**
+     * 活动日志环形缓冲区可容纳的事件数（向上取整为 2 的幂）
+     */
+    public static int activityBufferSize() {
+        return Integer.getInteger("atm.activity.bufferSize", 65536);
+    }
+
+    /**
+     * 活动日志缓冲区满时的处理策略: block（等待写入线程腾出空间）、drop（丢弃新事件）、
+     * sample（缓冲区占用超过四分之三后按 atm.activity.sampleRate 抽样保留）
+     */
+    public static String activityOverflowPolicy() {
+        return System.getProperty("atm.activity.overflow", "block");
+    }
+
+    /**
+     * sample 策略下每多少个事件保留一个
+     */
+    public static int activitySampleRate() {
+        return Integer.getInteger("atm.activity.sampleRate", 10);
+    }
+
+    /**
+     * 二进制活动日志每个分段的字节数
+     */
+    public static int activitySegmentBytes() {
+        return Integer.getInteger("atm.activity.segmentBytes", 64 * 1024 * 1024);
+    }
+
+    /**
+     * 二进制活动日志保留的分段数，更早的分段会被删除
+     */
+    public static int activitySegments() {
+        return Integer.getInteger("atm.activity.segments", 16);
+    }
+
+    /**
+     * history 请求最多返回的记录数
+     */
+    public static int historyMaxEntries() {
+        return Integer.getInteger("atm.history.maxEntries", 100);
+    }
+
+    /**
+     * 对账单缓存为每个账户保留的最近交易数，也是 statement 请求最多返回的条数
+     */
+    public static int statementEntries() {
+        return Integer.getInteger("atm.statement.entries", 10);
+    }
+
+    /**
+     * 对账单缓存的内存上限（字节，按每个账户的环估算），超过后淘汰最久未访问的账户
+     */
+    public static long statementMaxBytes() {
+        return Long.getLong("atm.statement.maxBytes", 16L * 1024 * 1024);
+    }
+
+    /**
+     * 新密码的 PBKDF2-HMAC-SHA256 迭代次数，0 表示使用旧版 SHA-256。
+     * 已有账户在下次登录成功时按新的迭代次数重新计算哈希
+     */
+    public static int passwordIterations() {
+        return Integer.getInteger("atm.password.iterations", 20000);
+    }
+
+    /**
+     * 计算密码哈希的线程数
+     */
+    public static int passwordThreads() {
+        return Integer.getInteger("atm.password.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * 等待计算的密码哈希请求上限，超过后登录、注册和修改密码请求直接返回服务器繁忙
+     */
+    public static int passwordMaxQueue() {
+        return Integer.getInteger("atm.password.maxQueue", 64);
+    }
+
+    /**
+     * 会话的空闲超时（秒），超过这段时间没有请求的会话自动结束，0 表示不超时
+     */
+    public static long sessionIdleTimeoutSeconds() {
+        return Long.getLong("atm.session.idleTimeoutSeconds", 300);
+    }
+
+    /**
+     * 服务器定时器的精度（毫秒），会话超时和空闲连接回收都按这个刻度检查
+     */
+    public static long timerTickMillis() {
+        return Long.getLong("atm.timer.tickMillis", 1000);
+    }
+
+    /**
+     * 未登录连接的空闲阈值（秒），超过这段时间没有完整的请求就关闭连接，0 表示不回收
+     */
+    public static long connectionIdleSeconds() {
+        return Long.getLong("atm.connection.idleSeconds", 60);
+    }
+
+    /**
+     * 已登录连接的空闲阈值（秒），0 表示不回收
+     */
+    public static long authenticatedConnectionIdleSeconds() {
+        return Long.getLong("atm.connection.authenticatedIdleSeconds", 900);
+    }
+
+    /**
+     * 线程模式下连接的读取超时（秒），是空闲回收之外的兜底，应大于两个空闲阈值；0 表示不超时
+     */
+    public static long connectionReadTimeoutSeconds() {
+        return Long.getLong("atm.connection.readTimeoutSeconds", 1800);
+    }
+
+    /**
+     * 是否对登录类和变更类请求限流
+     */
+    public static boolean rateLimitEnabled() {
+        return !"false".equals(System.getProperty("atm.rateLimit.enabled"));
+    }
+
+    /**
+     * 每个客户端 IP 每秒允许的登录类请求（注册、登录、修改密码）数
+     */
+    public static int rateLimitAuthPerAddress() {
+        return Integer.getInteger("atm.rateLimit.auth.perAddress", 5);
+    }
+
+    /**
+     * 每个用户名每秒允许的登录类请求数；注册和登录按“客户端 IP + 用户名”计数
+     */
+    public static int rateLimitAuthPerUser() {
+        return Integer.getInteger("atm.rateLimit.auth.perUser", 1);
+    }
+
+    /**
+     * 登录类请求的突发容量
+     */
+    public static int rateLimitAuthBurst() {
+        return Integer.getInteger("atm.rateLimit.auth.burst", 10);
+    }
+
+    /**
+     * 每个客户端 IP 每秒允许的变更类请求（存款、取款、批量）数
+     */
+    public static int rateLimitUpdatePerAddress() {
+        return Integer.getInteger("atm.rateLimit.update.perAddress", 500);
+    }
+
+    /**
+     * 每个用户名每秒允许的变更类请求数
+     */
+    public static int rateLimitUpdatePerUser() {
+        return Integer.getInteger("atm.rateLimit.update.perUser", 100);
+    }
+
+    /**
+     * 变更类请求的突发容量
+     */
+    public static int rateLimitUpdateBurst() {
+        return Integer.getInteger("atm.rateLimit.update.burst", 200);
+    }
+
+    /**
+     * 每个限流器最多保留的令牌桶数，超过后淘汰空闲的和最久未使用的
+     */
+    public static int rateLimitMaxKeys() {
+        return Integer.getInteger("atm.rateLimit.maxKeys", 100000);
+    }
+}
@@ -0,0 +1,54 @@
+package com.harkerhand.backend.log;
+
+/**
+ * 环形缓冲区中的一个活动事件槽位
+ * 槽位在缓冲区创建时一次性分配并反复使用，发布事件只是填写字段，不在请求线程上格式化字符串。
+ */
+final class ActivityEvent {
+    static final int LOGIN = 1;
+    static final int BALANCE_CHECK = 2;
+    static final int DEPOSIT = 3;
+    static final int WITHDRAWAL = 4;
+    static final int PASSWORD_CHANGE = 5;
+    static final int LOGOUT = 6;
+    static final int ACTION = 7;
+    static final int INTEREST = 8;
+    static final int INTEREST_ADDED = 9;
+    static final int SYSTEM = 10;
+
+    int type;
+    long timeMillis;
+    String username;
+    // IP 地址、操作描述或系统消息
+    String text;
+    // 利息事件的动作类型
+    String detail;
+    long amount;
+    boolean success;
+
+    /**
+     * @return 是否是改变余额的交易（成功的存款、取款和利息入账）
+     */
+    static boolean isTransaction(int type, boolean success) {
+        return success && (type == DEPOSIT || type == WITHDRAWAL || type == INTEREST_ADDED);
+    }
+
+    void set(int type, String username, String text, String detail, long amount, boolean success) {
+        this.type = type;
+        this.timeMillis = System.currentTimeMillis();
+        this.username = username;
+        this.text = text;
+        this.detail = detail;
+        this.amount = amount;
+        this.success = success;
+    }
+
+    /**
+     * 写出后清除引用，缓冲区不会让用户名等字符串一直存活
+     */
+    void clear() {
+        username = null;
+        text = null;
+        detail = null;
+    }
+}
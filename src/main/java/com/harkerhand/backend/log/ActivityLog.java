@@ -0,0 +1,279 @@
+package com.harkerhand.backend.log;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * 二进制活动日志
+ *
+ * 事件按定长字段加用户名、附加文本的紧凑格式追加到内存映射的分段文件 activity-NNNNNN.bin 中，
+ * 分段写满后切换到下一个，只保留最近的若干个分段。每条记录保存同一用户上一条记录的位置，
+ * 内存中只需记住每个用户最新一条记录的位置，按回指链即可读出该用户最近的记录，不必扫描整个日志。
+ *
+ * <pre>
+ * 分段头: int 魔数, int 版本, long 保留
+ * 记录:   int 记录长度, byte 事件类型, byte 是否成功, short 用户名字节数,
+ *         long 时间（毫秒）, long 金额（分）, long 同一用户上一条记录的位置,
+ *         用户名 UTF-8, short 附加文本字节数, 附加文本 UTF-8
+ * </pre>
+ *
+ * 记录位置为 (分段编号 &lt;&lt; 32) | 分段内偏移。记录长度字段最后写入，长度为 0 表示分段到此结束。
+ * 只有写入线程追加记录；查询可以在任意线程进行，记录先写完再发布到用户索引，查询只会看到完整的记录。
+ *
+ * 只记录已存在账户的事件：登录失败等事件的用户名可能是任意输入，为它们建立索引项会让索引无限增长，
+ * 这些事件只写入文本活动日志。
+ */
+final class ActivityLog {
+    static final long NO_RECORD = -1;
+
+    private static final Logger logger = Logger.getLogger("ActivityLog");
+    private static final int MAGIC = 0x41544D41;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int FIXED_BYTES = 32;
+    private static final int MAX_NAME_BYTES = 256;
+    private static final int MAX_TEXT_BYTES = 1024;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Predicate<String> accountExists;
+    private final ConcurrentSkipListMap<Integer, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    // 每个用户最新一条记录的位置
+    private final Map<String, Long> latest = new ConcurrentHashMap<>();
+    private MappedByteBuffer current;
+    private int currentSegment;
+    private int position;
+
+    /**
+     * 打开日志目录，扫描已有分段重建用户索引
+     *
+     * @param directory     分段所在目录
+     * @param segmentBytes  每个分段的字节数
+     * @param maxSegments   保留的分段数
+     * @param accountExists 判断用户名是否属于已存在的账户
+     */
+    ActivityLog(Path directory, int segmentBytes, int maxSegments, Predicate<String> accountExists)
+            throws IOException {
+        this.directory = directory;
+        this.accountExists = accountExists;
+        this.segmentBytes = Math.max(segmentBytes, HEADER_BYTES + FIXED_BYTES + MAX_NAME_BYTES + 2 + MAX_TEXT_BYTES);
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(directory);
+
+        List<Integer> existing = listSegments();
+        for (int segment : existing) {
+            MappedByteBuffer buffer = map(segment, false);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                logger.warning("忽略无法识别的活动日志分段: " + segmentPath(segment));
+                continue;
+            }
+            segments.put(segment, buffer);
+            position = scan(segment, buffer);
+            currentSegment = segment;
+            current = buffer;
+        }
+        if (current == null || current.capacity() != this.segmentBytes) {
+            // 分段大小配置变化时从新分段开始写
+            roll();
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("activity-%06d.bin", segment));
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "activity-*.bin")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    result.add(Integer.parseInt(name.substring(9, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // 忽略无关文件
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private MappedByteBuffer map(int segment, boolean create) throws IOException {
+        try (FileChannel channel = create
+                ? FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = create ? segmentBytes : channel.size();
+            // 映射在通道关闭后仍然有效
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 扫描一个分段，更新用户索引
+     *
+     * @return 分段中第一个空闲位置
+     */
+    private int scan(int segment, MappedByteBuffer buffer) {
+        int offset = HEADER_BYTES;
+        while (offset + FIXED_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            int nameBytes = Short.toUnsignedInt(buffer.getShort(offset + 6));
+            if (length < FIXED_BYTES + nameBytes + 2 || offset + length > buffer.capacity()) {
+                // 0 是分段结尾，其他值是写到一半的记录
+                break;
+            }
+            latest.put(readString(buffer, offset + FIXED_BYTES, nameBytes), pointer(segment, offset));
+            offset += length;
+        }
+        return offset;
+    }
+
+    private void roll() throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        int segment = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        MappedByteBuffer buffer = map(segment, true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        segments.put(segment, buffer);
+        current = buffer;
+        currentSegment = segment;
+        position = HEADER_BYTES;
+
+        while (segments.size() > maxSegments) {
+            int oldest = segments.pollFirstEntry().getKey();
+            // 指向已删除分段的索引项没有用了；读取中的查询仍持有映射，不受影响
+            latest.values().removeIf(pointer -> segmentOf(pointer) <= oldest);
+            Files.deleteIfExists(segmentPath(oldest));
+        }
+    }
+
+    /**
+     * 追加一条事件记录，只能由写入线程调用
+     *
+     * @return 记录的位置，用户名过长或账户不存在而不记录时返回 {@link #NO_RECORD}
+     */
+    long append(ActivityEvent event) throws IOException {
+        byte[] name = event.username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES || !accountExists.test(event.username)) {
+            return NO_RECORD;
+        }
+        byte[] text = event.text == null ? new byte[0] : event.text.getBytes(StandardCharsets.UTF_8);
+        int textBytes = Math.min(text.length, MAX_TEXT_BYTES);
+        int length = FIXED_BYTES + name.length + 2 + textBytes;
+        if (position + length > current.capacity()) {
+            roll();
+        }
+
+        Long previous = latest.get(event.username);
+        MappedByteBuffer buffer = current;
+        int offset = position;
+        buffer.put(offset + 4, (byte) event.type);
+        buffer.put(offset + 5, (byte) (event.success ? 1 : 0));
+        buffer.putShort(offset + 6, (short) name.length);
+        buffer.putLong(offset + 8, event.timeMillis);
+        buffer.putLong(offset + 16, event.amount);
+        buffer.putLong(offset + 24, previous == null ? NO_RECORD : previous);
+        buffer.put(offset + FIXED_BYTES, name);
+        buffer.putShort(offset + FIXED_BYTES + name.length, (short) textBytes);
+        buffer.put(offset + FIXED_BYTES + name.length + 2, text, 0, textBytes);
+        buffer.putInt(offset, length);
+        position += length;
+        long pointer = pointer(currentSegment, offset);
+        latest.put(event.username, pointer);
+        return pointer;
+    }
+
+    /**
+     * @return 用户最新一条记录的位置，没有记录时返回 {@link #NO_RECORD}
+     */
+    long head(String username) {
+        Long pointer = latest.get(username);
+        return pointer == null ? NO_RECORD : pointer;
+    }
+
+    /**
+     * 读取用户最近的记录，可以在任意线程调用
+     *
+     * @param username 用户名
+     * @param limit    最多返回的条数
+     * @return 从新到旧排列的记录
+     */
+    List<ActivityRecord> recent(String username, int limit) {
+        return read(head(username), limit, limit, false);
+    }
+
+    /**
+     * 从指定位置沿回指链读取成功的存款、取款和利息记录，可以在任意线程调用
+     *
+     * @param pointer 起始记录的位置
+     * @param limit   最多返回的条数
+     * @param maxScan 最多检查的记录数
+     * @return 从新到旧排列的记录
+     */
+    List<ActivityRecord> transactions(long pointer, int limit, int maxScan) {
+        return read(pointer, limit, maxScan, true);
+    }
+
+    private List<ActivityRecord> read(long pointer, int limit, int maxScan, boolean transactionsOnly) {
+        List<ActivityRecord> records = new ArrayList<>();
+        for (int scanned = 0; pointer != NO_RECORD && records.size() < limit && scanned < maxScan; scanned++) {
+            MappedByteBuffer buffer = segments.get(segmentOf(pointer));
+            if (buffer == null) {
+                // 更早的记录所在的分段已被删除
+                break;
+            }
+            int offset = (int) pointer;
+            int type = buffer.get(offset + 4);
+            boolean success = buffer.get(offset + 5) != 0;
+            if (!transactionsOnly || ActivityEvent.isTransaction(type, success)) {
+                int nameBytes = Short.toUnsignedInt(buffer.getShort(offset + 6));
+                int textBytes = Short.toUnsignedInt(buffer.getShort(offset + FIXED_BYTES + nameBytes));
+                records.add(new ActivityRecord(type, success, buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                        textBytes == 0 ? null : readString(buffer, offset + FIXED_BYTES + nameBytes + 2, textBytes)));
+            }
+            pointer = buffer.getLong(offset + 24);
+        }
+        return records;
+    }
+
+    /**
+     * 把已写入的记录刷到磁盘，只能由写入线程调用
+     */
+    void force() {
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    private static long pointer(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    private static int segmentOf(long pointer) {
+        return (int) (pointer >>> 32);
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
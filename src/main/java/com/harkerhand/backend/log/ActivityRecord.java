@@ -0,0 +1,82 @@
+package com.harkerhand.backend.log;
+
+/**
+ * 从二进制活动日志中读出的一条记录
+ */
+public final class ActivityRecord {
+    private final int type;
+    private final boolean success;
+    private final long timeMillis;
+    private final long amount;
+    private final String text;
+
+    ActivityRecord(int type, boolean success, long timeMillis, long amount, String text) {
+        this.type = type;
+        this.success = success;
+        this.timeMillis = timeMillis;
+        this.amount = amount;
+        this.text = text;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    /**
+     * @return 对应的 action 名称（如 deposit、withdraw、login、interest），一般操作返回 "action"
+     */
+    public String getAction() {
+        switch (type) {
+            case ActivityEvent.LOGIN:
+                return "login";
+            case ActivityEvent.BALANCE_CHECK:
+                return "query";
+            case ActivityEvent.DEPOSIT:
+                return "deposit";
+            case ActivityEvent.WITHDRAWAL:
+                return "withdraw";
+            case ActivityEvent.PASSWORD_CHANGE:
+                return "change_password";
+            case ActivityEvent.LOGOUT:
+                return "logout";
+            case ActivityEvent.INTEREST:
+            case ActivityEvent.INTEREST_ADDED:
+                return "interest";
+            default:
+                return "action";
+        }
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return 事件发生的时间（毫秒时间戳）
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return 是否带有金额（存款、取款和利息）
+     */
+    public boolean hasAmount() {
+        return type == ActivityEvent.DEPOSIT || type == ActivityEvent.WITHDRAWAL
+                || type == ActivityEvent.INTEREST_ADDED;
+    }
+
+    /**
+     * @return 金额（分）
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return 附加文本（登录 IP、操作描述等），没有时返回null
+     */
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,196 @@
+package com.harkerhand.backend.log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多生产者、单消费者的活动事件环形缓冲区
+ *
+ * 生产者用 CAS 领取序号，填写对应槽位后以 release 语义发布序号；消费者按序号顺序读取已发布的槽位，
+ * 处理完后推进消费位置，槽位随后可被重新领取。缓冲区满时按 {@link Overflow} 策略处理。
+ */
+final class ActivityRing {
+    enum Overflow {
+        /** 等待消费者腾出空间，不丢失事件 */
+        BLOCK,
+        /** 直接丢弃新事件 */
+        DROP,
+        /** 占用超过四分之三后只保留每 sampleRate 个事件中的一个，满时丢弃 */
+        SAMPLE
+    }
+
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final ActivityEvent[] events;
+    // 每个槽位最近一次发布的序号
+    private final long[] published;
+    private final int mask;
+    private final Overflow overflow;
+    private final int sampleRate;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long consumed;
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+
+    ActivityRing(int capacity, Overflow overflow, int sampleRate) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.events = new ActivityEvent[size];
+        this.published = new long[size];
+        for (int i = 0; i < size; i++) {
+            events[i] = new ActivityEvent();
+            published[i] = -1;
+        }
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    /**
+     * 发布一个事件
+     *
+     * @return 事件是否进入缓冲区，被溢出策略丢弃时返回 false
+     */
+    boolean publish(int type, String username, String text, String detail, long amount, boolean success) {
+        long sequence = claim();
+        if (sequence < 0) {
+            dropped.increment();
+            return false;
+        }
+        int index = (int) sequence & mask;
+        events[index].set(type, username, text, detail, amount, success);
+        // volatile 写与下面对 consumerParked 的读不会重排，不会错过正在等待的消费者
+        SEQUENCES.setVolatile(published, index, sequence);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * @return 领取到的序号，按溢出策略放弃时返回 -1
+     */
+    private long claim() {
+        boolean sampledIn = false;
+        while (true) {
+            long sequence = next.get();
+            long used = sequence - consumed;
+            if (used >= events.length) {
+                if (overflow != Overflow.BLOCK || closed) {
+                    return -1;
+                }
+                // 消费者可能正在等待新事件，唤醒它来腾出空间
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                continue;
+            }
+            if (overflow == Overflow.SAMPLE && !sampledIn && used >= events.length - (events.length >> 2)) {
+                if (sampled.getAndIncrement() % sampleRate != 0) {
+                    return -1;
+                }
+                sampledIn = true;
+            }
+            if (next.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * 消费者停止后调用，此后缓冲区满时不再等待
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * 由消费者线程调用，登记自己以便生产者唤醒
+     */
+    void attach(Thread thread) {
+        consumer = thread;
+    }
+
+    /**
+     * 取出下一个已发布的事件，没有时返回 null。只能由消费者线程调用，
+     * 处理完事件后需调用 {@link #release(ActivityEvent)}。
+     */
+    ActivityEvent poll() {
+        long sequence = consumed;
+        int index = (int) sequence & mask;
+        if ((long) SEQUENCES.getAcquire(published, index) != sequence) {
+            return null;
+        }
+        return events[index];
+    }
+
+    /**
+     * 归还 {@link #poll()} 取出的事件，槽位可以被生产者重新使用
+     */
+    void release(ActivityEvent event) {
+        event.clear();
+        consumed = consumed + 1;
+    }
+
+    /**
+     * 消费者在没有事件时等待，有新事件发布或超时后返回
+     */
+    void await(long timeoutNanos) {
+        consumerParked = true;
+        try {
+            long sequence = consumed;
+            if ((long) SEQUENCES.getVolatile(published, (int) sequence & mask) != sequence) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            consumerParked = false;
+        }
+    }
+
+    /**
+     * @return 已领取的序号总数，用作 {@link #awaitConsumed(long, long)} 的目标
+     */
+    long claimed() {
+        return next.get();
+    }
+
+    /**
+     * 等待消费者处理完指定序号之前的所有事件
+     *
+     * @return 在超时之前处理完返回 true
+     */
+    boolean awaitConsumed(long sequence, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (consumed < sequence) {
+            if (closed || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * @return 已被领取但尚未处理的事件数
+     */
+    long pending() {
+        return next.get() - consumed;
+    }
+
+    /**
+     * @return 被溢出策略丢弃的事件总数
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+}
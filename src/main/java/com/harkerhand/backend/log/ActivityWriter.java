@@ -0,0 +1,257 @@
+package com.harkerhand.backend.log;
+
+import com.harkerhand.backend.utils.Money;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 活动日志的消费线程
+ * 从环形缓冲区按顺序取出事件，格式化为一行文本追加到字符缓冲区，缓冲区写满或事件取空时
+ * 编码为 UTF-8 并通过 FileChannel 一次写入；带用户名的事件同时追加到二进制活动日志（{@link ActivityLog}），
+ * 交易事件再追加到对账单缓存（{@link StatementCache}）。
+ * 只有这一个线程格式化和写文件，不需要加锁。
+ */
+final class ActivityWriter implements Runnable {
+    private static final Logger logger = Logger.getLogger("ActivityWriter");
+    private static final int BATCH_CHARS = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final ActivityRing ring;
+    private final ActivityLog binaryLog;
+    private final StatementCache statements;
+    private final FileChannel channel;
+    private final Thread thread;
+    private final StringBuilder text = new StringBuilder(BATCH_CHARS + 1024);
+    private char[] chars = new char[BATCH_CHARS + 1024];
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BATCH_CHARS * 3);
+    private long reportedDropped;
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondText;
+    private volatile boolean running = true;
+
+    /**
+     * @param ring      事件来源
+     * @param file      文本日志文件
+     * @param binaryLog  同时写入的二进制活动日志
+     * @param statements 写入交易事件后追加的对账单缓存
+     */
+    ActivityWriter(ActivityRing ring, Path file, ActivityLog binaryLog, StatementCache statements)
+            throws IOException {
+        this.ring = ring;
+        this.binaryLog = binaryLog;
+        this.statements = statements;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.thread = new Thread(this, "activity-writer");
+        this.thread.setDaemon(true);
+        ring.attach(thread);
+        this.thread.start();
+    }
+
+    /**
+     * 停止消费线程，缓冲区中已发布的事件会先写完
+     */
+    void close() {
+        running = false;
+        ring.close();
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean stopping = !running;
+            ActivityEvent event;
+            while ((event = ring.poll()) != null) {
+                format(event);
+                if (event.username != null) {
+                    appendBinary(event);
+                }
+                ring.release(event);
+                if (text.length() >= BATCH_CHARS) {
+                    flush();
+                }
+            }
+            reportDropped();
+            flush();
+            if (stopping) {
+                break;
+            }
+            ring.await(IDLE_PARK_NANOS);
+        }
+        try {
+            binaryLog.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "关闭活动日志文件时出错", e);
+        }
+    }
+
+    private void appendBinary(ActivityEvent event) {
+        try {
+            statements.record(event, binaryLog.append(event));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "写入二进制活动日志时出错", e);
+        }
+    }
+
+    private void reportDropped() {
+        long dropped = ring.dropped();
+        if (dropped != reportedDropped) {
+            appendTime(System.currentTimeMillis());
+            text.append("DROPPED: ").append(dropped - reportedDropped)
+                    .append(" activity events dropped by overflow policy\n");
+            reportedDropped = dropped;
+        }
+    }
+
+    private void format(ActivityEvent event) {
+        appendTime(event.timeMillis);
+        switch (event.type) {
+            case ActivityEvent.LOGIN:
+                appendUser("LOGIN: User '", event).append("' from ").append(event.text).append(" - ");
+                appendStatus(event);
+                break;
+            case ActivityEvent.BALANCE_CHECK:
+                appendUser("BALANCE CHECK: User '", event).append("' checked account balance");
+                break;
+            case ActivityEvent.DEPOSIT:
+                appendUser("DEPOSIT: User '", event).append("' deposited ");
+                appendMoney(event.amount);
+                break;
+            case ActivityEvent.WITHDRAWAL:
+                appendUser("WITHDRAWAL: User '", event).append("' attempted to withdraw ");
+                appendMoney(event.amount);
+                text.append(" - ");
+                appendStatus(event);
+                break;
+            case ActivityEvent.PASSWORD_CHANGE:
+                appendUser("PASSWORD CHANGE: User '", event).append("' - ");
+                appendStatus(event);
+                break;
+            case ActivityEvent.LOGOUT:
+                appendUser("LOGOUT: User '", event).append("' logged out");
+                break;
+            case ActivityEvent.ACTION:
+                appendUser("ACTION: User '", event).append("' - ").append(event.text);
+                break;
+            case ActivityEvent.INTEREST:
+                appendUser("INTEREST: User '", event).append("' - ").append(event.detail).append(" - ")
+                        .append(event.text);
+                break;
+            case ActivityEvent.INTEREST_ADDED:
+                appendUser("INTEREST: User '", event).append("' - INTEREST_ADDED - Added interest: ");
+                appendMoney(event.amount);
+                break;
+            default:
+                text.append(event.text);
+                break;
+        }
+        text.append('\n');
+    }
+
+    private StringBuilder appendUser(String prefix, ActivityEvent event) {
+        return text.append(prefix).append(event.username);
+    }
+
+    private void appendStatus(ActivityEvent event) {
+        text.append(event.success ? "successful" : "failed");
+    }
+
+    private void appendMoney(long cents) {
+        if (cents < 0) {
+            text.append('-');
+        }
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        text.append(abs / 100).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        text.append(fraction);
+    }
+
+    /**
+     * 写出形如 "2024-01-01 12:00:00.123 " 的时间前缀，秒以上的部分每秒只格式化一次
+     */
+    private void appendTime(long timeMillis) {
+        long second = Math.floorDiv(timeMillis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedSecondText = SECOND_FORMAT.format(Instant.ofEpochSecond(second));
+        }
+        int millis = Math.floorMod(timeMillis, 1000);
+        text.append(cachedSecondText).append('.');
+        if (millis < 100) {
+            text.append('0');
+        }
+        if (millis < 10) {
+            text.append('0');
+        }
+        text.append(millis).append(' ');
+    }
+
+    private void flush() {
+        if (text.length() == 0) {
+            return;
+        }
+        // 复制到字符数组再编码，编码器可以直接访问数组而不是逐个调用 charAt
+        if (chars.length < text.length()) {
+            chars = new char[text.length()];
+        }
+        text.getChars(0, text.length(), chars, 0);
+        CharBuffer input = CharBuffer.wrap(chars, 0, text.length());
+        encoder.reset();
+        try {
+            CoderResult result;
+            do {
+                result = encoder.encode(input, bytes, true);
+                if (result.isOverflow()) {
+                    drain();
+                }
+            } while (result.isOverflow());
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "写入活动日志时出错", e);
+            bytes.clear();
+        }
+        text.setLength(0);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
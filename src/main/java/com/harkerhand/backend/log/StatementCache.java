@@ -0,0 +1,147 @@
+package com.harkerhand.backend.log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 每个账户最近交易的内存缓存（迷你对账单）
+ *
+ * 每个账户一个固定大小的环，保存最近的成功存款、取款和利息入账。环只为查询过对账单的账户创建:
+ * 未缓存的账户第一次查询时从二进制活动日志重建，之后由写入线程在写出交易事件时追加。
+ * 缓存按最近访问（查询或新交易）排序，估算的内存超过上限时淘汰最久未访问的账户，被淘汰的账户下次查询时重新从日志重建。
+ *
+ * 写入线程先把事件写入日志再追加到缓存，两步之间重建的环已经包含这条记录；
+ * 环记住最新一条记录在日志中的位置，写入线程据此跳过已经包含的记录。
+ */
+final class StatementCache {
+    // 每个环的固定开销估算: 环对象、三个数组头、映射项和链表指针
+    private static final int RING_OVERHEAD_BYTES = 160;
+    // 每条记录: long 时间 + long 金额 + byte 类型
+    private static final int ENTRY_BYTES = 17;
+    // 重建时最多检查的日志记录数，登录、查询等非交易记录也计算在内
+    private static final int MAX_REBUILD_SCAN = 1000;
+
+    private final ActivityLog log;
+    private final int entries;
+    private final int maxRings;
+    private final Map<String, Ring> rings;
+    private long rebuilds;
+    private long evictions;
+
+    /**
+     * @param log      重建时读取的二进制活动日志
+     * @param entries  每个账户保留的交易数
+     * @param maxBytes 缓存的内存上限（估算值）
+     */
+    StatementCache(ActivityLog log, int entries, long maxBytes) {
+        this.log = log;
+        this.entries = Math.max(1, entries);
+        this.maxRings = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                maxBytes / (RING_OVERHEAD_BYTES + (long) this.entries * ENTRY_BYTES)));
+        this.rings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                if (size() > maxRings) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 一个账户的交易环
+     */
+    private static final class Ring {
+        final long[] times;
+        final long[] amounts;
+        final byte[] types;
+        // 下一条记录写入的位置和已保存的记录数
+        int next;
+        int count;
+        // 已包含的最新一条日志记录的位置
+        long lastPointer = ActivityLog.NO_RECORD;
+
+        Ring(int entries) {
+            times = new long[entries];
+            amounts = new long[entries];
+            types = new byte[entries];
+        }
+
+        void add(int type, long timeMillis, long amount) {
+            times[next] = timeMillis;
+            amounts[next] = amount;
+            types[next] = (byte) type;
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+        }
+    }
+
+    /**
+     * 写入线程写出一条事件后调用，只追加已缓存账户的交易
+     *
+     * @param event   事件
+     * @param pointer 事件在日志中的位置
+     */
+    synchronized void record(ActivityEvent event, long pointer) {
+        if (pointer == ActivityLog.NO_RECORD || !ActivityEvent.isTransaction(event.type, event.success)) {
+            return;
+        }
+        Ring ring = rings.get(event.username);
+        if (ring != null && pointer > ring.lastPointer) {
+            ring.add(event.type, event.timeMillis, event.amount);
+            ring.lastPointer = pointer;
+        }
+    }
+
+    /**
+     * 读取账户最近的交易，未缓存时从日志重建
+     *
+     * @param username 用户名
+     * @param limit    最多返回的条数
+     * @return 从新到旧排列的交易
+     */
+    synchronized List<ActivityRecord> statement(String username, int limit) {
+        Ring ring = rings.get(username);
+        if (ring == null) {
+            ring = rebuild(username);
+            rings.put(username, ring);
+        }
+        int count = Math.min(limit, ring.count);
+        List<ActivityRecord> records = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            int index = Math.floorMod(ring.next - i, ring.times.length);
+            records.add(new ActivityRecord(ring.types[index], true, ring.times[index], ring.amounts[index], null));
+        }
+        return records;
+    }
+
+    private Ring rebuild(String username) {
+        rebuilds++;
+        Ring ring = new Ring(entries);
+        long head = log.head(username);
+        List<ActivityRecord> recent = log.transactions(head, entries, MAX_REBUILD_SCAN);
+        // 日志从新到旧，环从旧到新
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            ActivityRecord record = recent.get(i);
+            ring.add(record.getType(), record.getTimeMillis(), record.getAmount());
+        }
+        ring.lastPointer = head;
+        return ring;
+    }
+
+    synchronized int size() {
+        return rings.size();
+    }
+
+    synchronized long rebuilds() {
+        return rebuilds;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+}
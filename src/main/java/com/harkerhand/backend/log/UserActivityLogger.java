@@ -1,23 +1,52 @@
 package com.harkerhand.backend.log;
 
+import com.harkerhand.backend.config.ServerConfig;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.logging.*;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
 
 /**
  * 用户活动日志记录器
  * 负责记录所有用户的操作活动
+ *
+ * 记录是异步的: 各 log 方法只把事件字段写入预先分配的环形缓冲区（{@link ActivityRing}），
+ * 由单独的 activity-writer 线程格式化并成批写入日志文件，处理请求的线程不格式化字符串，也不争用文件锁。
+ * 缓冲区满时按 atm.activity.overflow 处理: block（等待，默认）、drop（丢弃）、sample（抽样保留），
+ * 被丢弃的事件数可以通过 {@link #getDroppedEvents()} 查看，也会写入日志。
+ * 未初始化或已关闭时记录的事件会被忽略。
+ *
+ * 带用户名的事件同时写入 logs/activity/ 下的二进制分段日志，{@link #history(String, int)}
+ * 沿每个用户的记录链读取最近的活动，不需要扫描日志。{@link #statement(String, int)} 从内存中的
+ * 对账单缓存读取最近的交易，缓存未命中时从二进制日志重建。
  */
 public class UserActivityLogger {
     private static final Logger logger = Logger.getLogger("UserActivity");
-    private static FileHandler fileHandler;
     private static final String LOG_FOLDER = "logs";
     private static final String USER_ACTIVITY_LOG_FILE = "user_activity.log";
+    private static final String BINARY_LOG_FOLDER = "activity";
+    private static final long STATEMENT_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static volatile ActivityRing ring;
+    // 关闭后仍保留，用于查询丢弃的事件数
+    private static volatile ActivityRing lastRing;
+    private static volatile ActivityLog binaryLog;
+    private static volatile StatementCache statements;
+    private static ActivityWriter writer;
 
     /**
      * 初始化用户活动日志系统
+     *
+     * @param accountExists 判断用户名是否属于已存在的账户，只有这些账户的事件写入二进制日志
      */
-    public static void initialize() {
+    public static synchronized void initialize(Predicate<String> accountExists) {
+        if (writer != null) {
+            return;
+        }
         try {
             // 确保日志目录存在
             File logDir = new File(LOG_FOLDER);
@@ -25,27 +54,37 @@ public class UserActivityLogger {
                 logDir.mkdirs();
             }
 
-            // 创建专门的用户活动日志处理器
-            fileHandler = new FileHandler(LOG_FOLDER + File.separator + USER_ACTIVITY_LOG_FILE, true);
-            SimpleFormatter formatter = new SimpleFormatter();
-            fileHandler.setFormatter(formatter);
-
-            // 确保移除之前的处理器
-            for (Handler handler : logger.getHandlers()) {
-                logger.removeHandler(handler);
-            }
-
-            logger.addHandler(fileHandler);
-            logger.setUseParentHandlers(false); // 不使用父日志记录器的处理器
-            logger.setLevel(Level.INFO);
+            ActivityRing.Overflow overflow =
+                    ActivityRing.Overflow.valueOf(ServerConfig.activityOverflowPolicy().trim().toUpperCase());
+            ActivityRing created = new ActivityRing(ServerConfig.activityBufferSize(), overflow,
+                    ServerConfig.activitySampleRate());
+            ActivityLog log = new ActivityLog(Path.of(LOG_FOLDER, BINARY_LOG_FOLDER),
+                    ServerConfig.activitySegmentBytes(), ServerConfig.activitySegments(), accountExists);
+            StatementCache cache = new StatementCache(log, ServerConfig.statementEntries(),
+                    ServerConfig.statementMaxBytes());
+            writer = new ActivityWriter(created, Path.of(LOG_FOLDER, USER_ACTIVITY_LOG_FILE), log, cache);
+            binaryLog = log;
+            statements = cache;
+            ring = created;
+            lastRing = created;
 
-            logger.info("User activity logging initialized");
-        } catch (IOException e) {
+            logger.info("User activity logging initialized, buffer " + created.capacity()
+                    + " events, overflow " + overflow.name().toLowerCase());
+            publish(ActivityEvent.SYSTEM, null, "User activity logging initialized", null, 0, true);
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("Failed to initialize user activity logger: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    private static void publish(int type, String username, String text, String detail, long amount,
+            boolean success) {
+        ActivityRing current = ring;
+        if (current != null) {
+            current.publish(type, username, text, detail, amount, success);
+        }
+    }
+
     /**
      * 记录用户登录活动
      * 
@@ -54,8 +93,7 @@ public class UserActivityLogger {
      * @param success   是否成功
      */
     public static void logLogin(String username, String ipAddress, boolean success) {
-        String status = success ? "successful" : "failed";
-        logger.info(String.format("LOGIN: User '%s' from %s - %s", username, ipAddress, status));
+        publish(ActivityEvent.LOGIN, username, ipAddress, null, 0, success);
     }
 
     /**
@@ -64,30 +102,28 @@ public class UserActivityLogger {
      * @param username 用户名
      */
     public static void logBalanceCheck(String username) {
-        logger.info(String.format("BALANCE CHECK: User '%s' checked account balance", username));
+        publish(ActivityEvent.BALANCE_CHECK, username, null, null, 0, true);
     }
 
     /**
      * 记录用户存款
      * 
      * @param username 用户名
-     * @param amount   金额
+     * @param amount   金额（分）
      */
-    public static void logDeposit(String username, double amount) {
-        logger.info(String.format("DEPOSIT: User '%s' deposited %.2f", username, amount));
+    public static void logDeposit(String username, long amount) {
+        publish(ActivityEvent.DEPOSIT, username, null, null, amount, true);
     }
 
     /**
      * 记录用户取款
      * 
      * @param username 用户名
-     * @param amount   金额
+     * @param amount   金额（分）
      * @param success  是否成功
      */
-    public static void logWithdrawal(String username, double amount, boolean success) {
-        String status = success ? "successful" : "failed";
-        logger.info(String.format("WITHDRAWAL: User '%s' attempted to withdraw %.2f - %s",
-                username, amount, status));
+    public static void logWithdrawal(String username, long amount, boolean success) {
+        publish(ActivityEvent.WITHDRAWAL, username, null, null, amount, success);
     }
 
     /**
@@ -97,8 +133,7 @@ public class UserActivityLogger {
      * @param success  是否成功
      */
     public static void logPasswordChange(String username, boolean success) {
-        String status = success ? "successful" : "failed";
-        logger.info(String.format("PASSWORD CHANGE: User '%s' - %s", username, status));
+        publish(ActivityEvent.PASSWORD_CHANGE, username, null, null, 0, success);
     }
 
     /**
@@ -107,7 +142,7 @@ public class UserActivityLogger {
      * @param username 用户名
      */
     public static void logLogout(String username) {
-        logger.info(String.format("LOGOUT: User '%s' logged out", username));
+        publish(ActivityEvent.LOGOUT, username, null, null, 0, true);
     }
 
     /**
@@ -117,7 +152,7 @@ public class UserActivityLogger {
      * @param action   操作描述
      */
     public static void logUserAction(String username, String action) {
-        logger.info(String.format("ACTION: User '%s' - %s", username, action));
+        publish(ActivityEvent.ACTION, username, action, null, 0, true);
     }
 
     /**
@@ -128,15 +163,99 @@ public class UserActivityLogger {
      * @param description 描述信息
      */
     public static void logInterestAddition(String username, String action, String description) {
-        logger.info(String.format("INTEREST: User '%s' - %s - %s", username, action, description));
+        publish(ActivityEvent.INTEREST, username, description, action, 0, true);
+    }
+
+    /**
+     * 记录入账的利息，金额在写入线程上格式化
+     *
+     * @param username 用户名
+     * @param interest 利息（分）
+     */
+    public static void logInterest(String username, long interest) {
+        publish(ActivityEvent.INTEREST_ADDED, username, null, null, interest, true);
+    }
+
+    /**
+     * 查询用户最近的活动记录。只包含写入线程已经写出的记录，刚记录的事件可能稍后才能查到
+     *
+     * @param username 用户名
+     * @param limit    最多返回的条数
+     * @return 从新到旧排列的记录，活动日志未初始化时为空
+     */
+    public static List<ActivityRecord> history(String username, int limit) {
+        ActivityLog log = binaryLog;
+        return log == null ? List.of() : log.recent(username, limit);
+    }
+
+    /**
+     * 查询账户最近的交易（成功的存款、取款和利息入账）
+     * 先等待写入线程处理完此前记录的事件（最多 {@link #STATEMENT_WAIT_NANOS}），
+     * 因此刚完成的交易也会出现在结果中；被溢出策略丢弃的事件不会出现。
+     *
+     * @param username 用户名
+     * @param limit    最多返回的条数，不超过缓存为每个账户保留的条数
+     * @return 从新到旧排列的交易，活动日志未初始化时为空
+     */
+    public static List<ActivityRecord> statement(String username, int limit) {
+        ActivityRing current = ring;
+        StatementCache cache = statements;
+        if (current == null || cache == null) {
+            return List.of();
+        }
+        current.awaitConsumed(current.claimed(), STATEMENT_WAIT_NANOS);
+        return cache.statement(username, limit);
+    }
+
+    /**
+     * @return 对账单缓存中的账户数
+     */
+    public static int getCachedStatements() {
+        StatementCache cache = statements;
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return 对账单缓存从日志重建的次数
+     */
+    public static long getStatementRebuilds() {
+        StatementCache cache = statements;
+        return cache == null ? 0 : cache.rebuilds();
+    }
+
+    /**
+     * @return 对账单缓存因内存上限淘汰的账户数
+     */
+    public static long getStatementEvictions() {
+        StatementCache cache = statements;
+        return cache == null ? 0 : cache.evictions();
+    }
+
+    /**
+     * @return 因缓冲区已满被丢弃的事件总数
+     */
+    public static long getDroppedEvents() {
+        ActivityRing current = lastRing;
+        return current == null ? 0 : current.dropped();
+    }
+
+    /**
+     * @return 已记录但尚未写入文件的事件数
+     */
+    public static long getPendingEvents() {
+        ActivityRing current = ring;
+        return current == null ? 0 : current.pending();
     }
 
     /**
-     * 关闭日志系统
+     * 关闭日志系统，已记录的事件会先写入文件
      */
-    public static void shutdown() {
-        if (fileHandler != null) {
-            fileHandler.close();
+    public static synchronized void shutdown() {
+        if (writer != null) {
+            publish(ActivityEvent.SYSTEM, null, "User activity logging system shutdown", null, 0, true);
+            ring = null;
+            writer.close();
+            writer = null;
             logger.info("User activity logging system shutdown");
         }
     }
@@ -0,0 +1,122 @@
+package com.harkerhand.backend.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时直方图
+ *
+ * 桶按对数-线性划分（与 HdrHistogram 相同的思路）：每个 2 的幂区间再等分为 {@link #SUB_BUCKETS} 个子桶，
+ * 记录的值落在哪个桶只需几次位运算，相对误差不超过 1/{@link #SUB_BUCKETS}，
+ * 从纳秒到十几分钟只用几百个 long。
+ *
+ * 记录不分配对象、不加锁：计数分为若干条带，每个线程按线程 id 固定写入其中一条，
+ * 不同线程之间几乎不会争抢同一个缓存行；读取时把所有条带合并为一份快照。
+ * 处理线程可能是每个请求一个的虚拟线程，因此不使用 ThreadLocal 为每个线程单独创建记录器，
+ * 否则记录器的数量会随请求数无限增长。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // 超过 2^40 纳秒（约 18 分钟）的值记入最后一个桶
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+    // 每条带在桶计数之后存放总和和最大值
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1);
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒），负数按 0 记录
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(MAX_VALUE, nanos));
+        AtomicLongArray stripe = stripes[(int) mix(Thread.currentThread().threadId()) & (STRIPES - 1)];
+        stripe.getAndIncrement(bucket(value));
+        stripe.getAndAdd(SUM, value);
+        long max;
+        while (value > (max = stripe.get(MAX)) && !stripe.compareAndSet(MAX, max, value)) {
+            // 只有同一条带上的并发记录会重试
+        }
+    }
+
+    /**
+     * 虚拟线程的 id 是连续分配的，打散后再取条带
+     */
+    private static long mix(long id) {
+        id *= 0x9E3779B97F4A7C15L;
+        return id ^ (id >>> 32);
+    }
+
+    /**
+     * @return 值所在的桶：小于 {@link #SUB_BUCKETS} 的值每个值一个桶，之后每个 2 的幂区间 {@link #SUB_BUCKETS} 个桶
+     */
+    static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return (int) (shift * SUB_BUCKETS + (value >>> shift));
+    }
+
+    /**
+     * @return 桶中的最大值
+     */
+    static long highestValue(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long lowest = (long) (bucket - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * 合并所有条带。与正在进行的记录并发执行时，快照可能不包含最近的几次记录。
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = stripe.get(i);
+                counts[i] += n;
+                count += n;
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new LatencySnapshot(count, count == 0 ? 0 : sum / count / 1000,
+                percentile(counts, count, 0.5, max), percentile(counts, count, 0.9, max),
+                percentile(counts, count, 0.99, max), percentile(counts, count, 0.999, max), max / 1000);
+    }
+
+    /**
+     * @return 百分位数（微秒），取所在桶的最大值，但不超过记录过的最大值
+     */
+    private static long percentile(long[] counts, long count, double quantile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), max) / 1000;
+            }
+        }
+        return max / 1000;
+    }
+}
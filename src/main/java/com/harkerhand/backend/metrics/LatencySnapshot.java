@@ -0,0 +1,61 @@
+package com.harkerhand.backend.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * 某一时刻的耗时统计，时间单位为微秒
+ * 通过 JMX 读取时映射为 CompositeData
+ */
+public final class LatencySnapshot {
+    private final long count;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    @ConstructorParameters({ "count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros",
+            "maxMicros" })
+    public LatencySnapshot(long count, long meanMicros, long p50Micros, long p90Micros, long p99Micros,
+                           long p999Micros, long maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return 记录的次数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+}
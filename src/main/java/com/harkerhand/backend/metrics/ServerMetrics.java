@@ -0,0 +1,191 @@
+package com.harkerhand.backend.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 服务器运行统计
+ *
+ * 每个请求操作一个耗时直方图和失败计数，存储层的日志写入、刷盘和检查点各一个耗时直方图，
+ * 再加上连接数和由各组件登记的计数器（队列深度、会话数、限流次数等）。
+ * 记录路径只是几次原子加法，不分配对象；汇总只在读取时进行，
+ * 读取途径有 JMX（{@link #OBJECT_NAME}）和只允许本机访问的 stats 操作。
+ */
+public final class ServerMetrics {
+    public static final String OBJECT_NAME = "com.harkerhand.atm:type=ServerStats";
+    private static final Logger logger = Logger.getLogger("ServerMetrics");
+
+    private static final String[] ACTIONS = {
+            "register", "login", "query", "deposit", "withdraw", "logout", "change_password", "batch",
+            "history", "statement", "stats"
+    };
+    private static final Map<String, ActionMetrics> actions = new LinkedHashMap<>();
+    // 未知操作统一记在一起，不按客户端发来的名称创建新的直方图
+    private static final ActionMetrics unknownAction = new ActionMetrics();
+    private static final LatencyHistogram journalWrite = new LatencyHistogram();
+    private static final LatencyHistogram journalSync = new LatencyHistogram();
+    private static final LatencyHistogram checkpoint = new LatencyHistogram();
+    private static final LongAdder openedConnections = new LongAdder();
+    private static final LongAdder closedConnections = new LongAdder();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    static {
+        for (String action : ACTIONS) {
+            actions.put(action, new ActionMetrics());
+        }
+        actions.put("unknown", unknownAction);
+    }
+
+    private static final class ActionMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * 记录一个请求的处理耗时
+     *
+     * @param action  请求的操作
+     * @param nanos   处理耗时（纳秒），不含排队和网络传输
+     * @param success 是否成功
+     */
+    public static void recordRequest(String action, long nanos, boolean success) {
+        ActionMetrics metrics = actions.getOrDefault(action, unknownAction);
+        metrics.latency.record(nanos);
+        if (!success) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * 记录一次日志批量写入的耗时
+     */
+    public static void recordJournalWrite(long nanos) {
+        journalWrite.record(nanos);
+    }
+
+    /**
+     * 记录一次日志刷盘（FileChannel.force）的耗时
+     */
+    public static void recordJournalSync(long nanos) {
+        journalSync.record(nanos);
+    }
+
+    /**
+     * 记录一次检查点（写快照并回收日志）的耗时
+     */
+    public static void recordCheckpoint(long nanos) {
+        checkpoint.record(nanos);
+    }
+
+    public static void connectionOpened() {
+        openedConnections.increment();
+    }
+
+    public static void connectionClosed() {
+        closedConnections.increment();
+    }
+
+    /**
+     * @return 当前打开的客户端连接数
+     */
+    public static long getActiveConnections() {
+        return openedConnections.sum() - closedConnections.sum();
+    }
+
+    /**
+     * 登记一个在读取统计时取值的计数器，同名的计数器会被替换
+     *
+     * @param name  名称，如 password.queue
+     * @param gauge 取值函数，会在读取统计的线程上调用，必须很快完成
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return 每个操作和每类存储刷盘的耗时统计
+     */
+    public static Map<String, LatencySnapshot> latencies() {
+        Map<String, LatencySnapshot> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().latency.snapshot());
+        }
+        latencies.put("journal.write", journalWrite.snapshot());
+        latencies.put("journal.fsync", journalSync.snapshot());
+        latencies.put("checkpoint", checkpoint.snapshot());
+        return latencies;
+    }
+
+    /**
+     * 所有统计展开为名称到数值的映射：连接数、登记的计数器，
+     * 以及每个耗时直方图的 count、meanMicros、p50Micros、p90Micros、p99Micros、p999Micros、maxMicros，
+     * 请求操作另有 errors
+     */
+    public static Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("connections.active", getActiveConnections());
+        stats.put("connections.total", openedConnections.sum());
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            try {
+                stats.put(entry.getKey(), entry.getValue().getAsLong());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "读取统计 " + entry.getKey() + " 时出错", e);
+            }
+        }
+        for (Map.Entry<String, LatencySnapshot> entry : latencies().entrySet()) {
+            String name = entry.getKey();
+            LatencySnapshot snapshot = entry.getValue();
+            stats.put(name + ".count", snapshot.getCount());
+            ActionMetrics action = actions.get(name);
+            if (action != null) {
+                stats.put(name + ".errors", action.errors.sum());
+            }
+            stats.put(name + ".meanMicros", snapshot.getMeanMicros());
+            stats.put(name + ".p50Micros", snapshot.getP50Micros());
+            stats.put(name + ".p90Micros", snapshot.getP90Micros());
+            stats.put(name + ".p99Micros", snapshot.getP99Micros());
+            stats.put(name + ".p999Micros", snapshot.getP999Micros());
+            stats.put(name + ".maxMicros", snapshot.getMaxMicros());
+        }
+        return stats;
+    }
+
+    /**
+     * 在平台 MBeanServer 上注册 {@link ServerStatsMXBean}
+     */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ServerStats(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "注册 JMX 统计失败", e);
+        }
+    }
+
+    private static final class ServerStats implements ServerStatsMXBean {
+        @Override
+        public long getActiveConnections() {
+            return ServerMetrics.getActiveConnections();
+        }
+
+        @Override
+        public Map<String, Long> getStats() {
+            return stats();
+        }
+
+        @Override
+        public Map<String, LatencySnapshot> getLatencies() {
+            return latencies();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.harkerhand.backend.metrics;
+
+import java.util.Map;
+
+/**
+ * 通过 JMX 暴露的服务器统计，对象名为 {@link ServerMetrics#OBJECT_NAME}
+ */
+public interface ServerStatsMXBean {
+    /**
+     * @return 当前打开的客户端连接数
+     */
+    long getActiveConnections();
+
+    /**
+     * @return 所有计数器和队列深度，与 stats 操作返回的内容相同
+     */
+    Map<String, Long> getStats();
+
+    /**
+     * @return 每个操作和每类存储刷盘的耗时统计
+     */
+    Map<String, LatencySnapshot> getLatencies();
+}
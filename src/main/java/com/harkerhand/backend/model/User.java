@@ -1,8 +1,12 @@
 package com.harkerhand.backend.model;
 
 import java.io.Serializable;
-import com.harkerhand.backend.utils.PasswordUtils;
 
+/**
+ * 旧版 users.dat 中以 Java 序列化保存的用户
+ * 服务器运行时的账户数据保存在存储层的账户表中，此类只用于迁移旧文件，
+ * 字段必须与旧版本保持一致才能反序列化。
+ */
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -11,56 +15,25 @@ public class User implements Serializable {
     private String salt;
     private double balance;
 
-    public User(String username, String password) {
-        this.username = username;
-        this.salt = PasswordUtils.generateSalt();
-        this.password = PasswordUtils.hashPassword(password, salt);
-        this.balance = 0.0;
-    }
-
-    public User(String username, String password, double balance) {
-        this.username = username;
-        this.salt = PasswordUtils.generateSalt();
-        this.password = PasswordUtils.hashPassword(password, salt);
-        this.balance = balance;
+    private User() {
     }
 
     public String getUsername() {
         return username;
     }
 
-    public boolean validatePassword(String password) {
-        return this.password.equals(PasswordUtils.hashPassword(password, salt));
-    }
-
     public String getSalt() {
         return salt;
     }
 
-    public double getBalance() {
-        return balance;
-    }
-
-    public void deposit(double amount) {
-        if (amount > 0) {
-            this.balance += amount;
-        }
-    }
-
-    public boolean withdraw(double amount) {
-        if (amount > 0 && this.balance >= amount) {
-            this.balance -= amount;
-            return true;
-        }
-        return false;
+    public String getPasswordHash() {
+        return password;
     }
 
-    public void setBalance(double balance) {
-        this.balance = balance;
-    }
-
-    public void setPassword(String newPassword) {
-        this.salt = PasswordUtils.generateSalt();
-        this.password = PasswordUtils.hashPassword(newPassword, salt);
+    /**
+     * @return 以元为单位的余额
+     */
+    public double getBalance() {
+        return balance;
     }
-}
\ No newline at end of file
+}
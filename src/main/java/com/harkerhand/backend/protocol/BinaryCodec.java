@@ -0,0 +1,283 @@
+package com.harkerhand.backend.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 长度前缀的二进制协议
+ *
+ * 客户端连接后先发送 5 字节握手: 魔数 {@link #MAGIC}（首字节 0xA7 不可能是 JSON 的开头）+ 协议版本。
+ * 服务器回复魔数 + 接受的版本，版本为 0 表示不支持，客户端应改用 JSON。
+ * 握手之后每一帧都是 [int 长度][内容]，整数为大端序，字符串为 [unsigned short 长度][UTF-8]，
+ * 金额为以分为单位的 long。
+ *
+ * <pre>
+ * 请求: byte 操作码, byte 标志(bit0 带 id, bit1 atomic, bit2 带令牌), [long id], [令牌], 参数
+ *   REGISTER / LOGIN       username, password
+ *   QUERY / LOGOUT         username
+ *   DEPOSIT / WITHDRAW     username, long 金额
+ *   CHANGE_PASSWORD        username, oldPassword, newPassword
+ *   BATCH                  username, unsigned short 数量, 数量 x (byte 操作码, long 金额)
+ *   HISTORY / STATEMENT    username, unsigned short 条数
+ *   STATS                  username（忽略）
+ *
+ * 响应: byte 状态(0 成功, 1 失败), short 字段掩码, 然后按掩码位的顺序:
+ *   bit0 long id, bit1 message, bit2 byte 操作码, bit3 long 金额, bit4 long 余额,
+ *   bit5 int applied, bit6 unsigned short 数量 + 数量 x 子结果（与响应相同，但没有长度前缀），
+ *   bit7 long 时间（毫秒）, bit8 登录发放的会话令牌,
+ *   bit9 unsigned short 数量 + 数量 x (名称, long 数值) 服务器统计
+ * 子结果的操作码还可以是 INTEREST，表示 history 或 statement 中的利息记录
+ * </pre>
+ */
+public class BinaryCodec {
+    public static final int MAGIC = 0xA7544D42;
+    public static final byte VERSION = 1;
+    public static final int HANDSHAKE_BYTES = 5;
+    public static final byte HANDSHAKE_FIRST_BYTE = (byte) (MAGIC >>> 24);
+
+    public static final byte REGISTER = 1;
+    public static final byte LOGIN = 2;
+    public static final byte QUERY = 3;
+    public static final byte DEPOSIT = 4;
+    public static final byte WITHDRAW = 5;
+    public static final byte LOGOUT = 6;
+    public static final byte CHANGE_PASSWORD = 7;
+    public static final byte BATCH = 8;
+    public static final byte HISTORY = 9;
+    public static final byte INTEREST = 10;
+    public static final byte STATEMENT = 11;
+    public static final byte STATS = 12;
+
+    public static final int FLAG_ID = 1;
+    public static final int FLAG_ATOMIC = 2;
+    public static final int FLAG_TOKEN = 4;
+
+    public static final int FIELD_ID = 1;
+    public static final int FIELD_MESSAGE = 1 << 1;
+    public static final int FIELD_ACTION = 1 << 2;
+    public static final int FIELD_AMOUNT = 1 << 3;
+    public static final int FIELD_BALANCE = 1 << 4;
+    public static final int FIELD_APPLIED = 1 << 5;
+    public static final int FIELD_RESULTS = 1 << 6;
+    public static final int FIELD_TIME = 1 << 7;
+    public static final int FIELD_TOKEN = 1 << 8;
+    public static final int FIELD_STATS = 1 << 9;
+
+    private static final String[] ACTIONS = {
+            null, "register", "login", "query", "deposit", "withdraw", "logout", "change_password", "batch",
+            "history", "interest", "statement", "stats"
+    };
+
+    /**
+     * @return 操作码对应的 action 名称，未知操作码返回null
+     */
+    public static String actionName(byte opcode) {
+        return opcode > 0 && opcode < ACTIONS.length ? ACTIONS[opcode] : null;
+    }
+
+    /**
+     * @return action 名称对应的操作码，未知 action 返回 0
+     */
+    public static byte opcode(String action) {
+        for (byte i = 1; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 检查客户端握手
+     *
+     * @param handshake 握手的 5 个字节
+     * @return 服务器应回复的握手，版本不支持时版本字段为 0
+     */
+    public static byte[] acceptHandshake(ByteBuffer handshake) throws IOException {
+        if (handshake.getInt() != MAGIC) {
+            throw new IOException("无效的协议握手");
+        }
+        byte version = handshake.get();
+        return handshake(version == VERSION ? VERSION : 0);
+    }
+
+    /**
+     * @return 指定版本的握手字节
+     */
+    public static byte[] handshake(byte version) {
+        return ByteBuffer.allocate(HANDSHAKE_BYTES).putInt(MAGIC).put(version).array();
+    }
+
+    /**
+     * 解码一帧请求（不含长度前缀）
+     *
+     * @throws IOException 帧格式错误
+     */
+    public static Request decode(ByteBuffer frame) throws IOException {
+        try {
+            Request request = new Request();
+            byte opcode = frame.get();
+            int flags = frame.get();
+            if ((flags & FLAG_ID) != 0) {
+                request.setId(Long.toString(frame.getLong()));
+            }
+            request.setAtomic((flags & FLAG_ATOMIC) != 0);
+            if ((flags & FLAG_TOKEN) != 0) {
+                request.setToken(readString(frame));
+            }
+            String action = actionName(opcode);
+            if (action == null) {
+                // 交给处理器返回“未知操作”
+                request.setAction("opcode-" + opcode);
+                return request;
+            }
+            request.setAction(action);
+            request.setUsername(readString(frame));
+
+            switch (opcode) {
+                case REGISTER:
+                case LOGIN:
+                    request.setPassword(readString(frame));
+                    break;
+                case DEPOSIT:
+                case WITHDRAW:
+                    request.setAmount(frame.getLong());
+                    break;
+                case CHANGE_PASSWORD:
+                    request.setOldPassword(readString(frame));
+                    request.setNewPassword(readString(frame));
+                    break;
+                case HISTORY:
+                case STATEMENT:
+                    request.setLimit(Short.toUnsignedInt(frame.getShort()));
+                    break;
+                case BATCH:
+                    int count = Short.toUnsignedInt(frame.getShort());
+                    for (int i = 0; i < count; i++) {
+                        Request sub = new Request();
+                        byte subOpcode = frame.get();
+                        sub.setAction(actionName(subOpcode) != null ? actionName(subOpcode) : "opcode-" + subOpcode);
+                        sub.setAmount(frame.getLong());
+                        request.getRequests().add(sub);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return request;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("请求帧不完整", e);
+        }
+    }
+
+    /**
+     * 编码响应，结果包含长度前缀
+     */
+    public static byte[] encode(Response response) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            writeResponse(out, response);
+            byte[] frame = bytes.toByteArray();
+            ByteBuffer.wrap(frame).putInt(frame.length - Integer.BYTES);
+            return frame;
+        } catch (IOException e) {
+            // 写入内存不会失败
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeResponse(DataOutputStream out, Response response) throws IOException {
+        int mask = 0;
+        if (response.getId() != null) {
+            mask |= FIELD_ID;
+        }
+        if (response.getMessage() != null) {
+            mask |= FIELD_MESSAGE;
+        }
+        if (response.getAction() != null) {
+            mask |= FIELD_ACTION;
+        }
+        if (response.hasAmount()) {
+            mask |= FIELD_AMOUNT;
+        }
+        if (response.hasBalance()) {
+            mask |= FIELD_BALANCE;
+        }
+        if (response.hasApplied()) {
+            mask |= FIELD_APPLIED;
+        }
+        if (response.getResults() != null) {
+            mask |= FIELD_RESULTS;
+        }
+        if (response.hasTime()) {
+            mask |= FIELD_TIME;
+        }
+        if (response.getToken() != null) {
+            mask |= FIELD_TOKEN;
+        }
+        if (response.getStats() != null) {
+            mask |= FIELD_STATS;
+        }
+
+        out.writeByte(response.isSuccess() ? 0 : 1);
+        out.writeShort(mask);
+        if ((mask & FIELD_ID) != 0) {
+            out.writeLong(Long.parseLong(response.getId()));
+        }
+        if ((mask & FIELD_MESSAGE) != 0) {
+            writeString(out, response.getMessage());
+        }
+        if ((mask & FIELD_ACTION) != 0) {
+            out.writeByte(opcode(response.getAction()));
+        }
+        if ((mask & FIELD_AMOUNT) != 0) {
+            out.writeLong(response.getAmount());
+        }
+        if ((mask & FIELD_BALANCE) != 0) {
+            out.writeLong(response.getBalance());
+        }
+        if ((mask & FIELD_APPLIED) != 0) {
+            out.writeInt(response.getApplied());
+        }
+        if ((mask & FIELD_RESULTS) != 0) {
+            out.writeShort(response.getResults().size());
+            for (Response result : response.getResults()) {
+                writeResponse(out, result);
+            }
+        }
+        if ((mask & FIELD_TIME) != 0) {
+            out.writeLong(response.getTime());
+        }
+        if ((mask & FIELD_TOKEN) != 0) {
+            writeString(out, response.getToken());
+        }
+        if ((mask & FIELD_STATS) != 0) {
+            out.writeShort(response.getStats().size());
+            for (Map.Entry<String, Long> stat : response.getStats().entrySet()) {
+                writeString(out, stat.getKey());
+                out.writeLong(stat.getValue());
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer frame) {
+        int length = Short.toUnsignedInt(frame.getShort());
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
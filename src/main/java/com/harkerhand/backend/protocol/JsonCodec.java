@@ -0,0 +1,412 @@
+package com.harkerhand.backend.protocol;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.harkerhand.backend.utils.Money;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 以换行分隔的 JSON 协议编解码器，也是未协商二进制协议时的默认格式
+ *
+ * 解码使用 JsonParser 直接把字段读入 Request，不构建 JsonNode 树；编码使用反复使用的
+ * JsonGenerator 和输出缓冲区。每个连接一个实例，连接上的所有帧都喂给同一个
+ * 非阻塞解析器，不必为每个请求创建解析器；按顺序处理的请求会复用同一个 Request 对象和编码器，
+ * 重复出现的 action 和用户名也不会再创建新的字符串。
+ * 编码器属于实例而不是线程：virtual 模式下每个连接和每个流水线请求都在新的虚拟线程上运行，
+ * 按线程缓存的编码器每次都要重新创建。
+ */
+public class JsonCodec {
+    private static final String[] ACTIONS = {
+            "register", "login", "query", "deposit", "withdraw", "logout", "change_password", "batch",
+            "history", "statement", "stats"
+    };
+    private static final int MAX_FAST_WHOLE_DIGITS = 15;
+
+    // 已处理完、可以复用的请求对象
+    private final AtomicReference<Request> spare = new AtomicReference<>();
+    // 空闲的编码器；流水线请求的响应并发编码时，拿不到的线程临时创建一个
+    private final AtomicReference<Encoder> spareEncoder = new AtomicReference<>();
+    private String lastUsername = "";
+    private JsonParser parser;
+
+    /**
+     * 接收编码结果，数组只在调用期间有效
+     */
+    public interface FrameWriter {
+        void write(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    /**
+     * 解码一帧 JSON 请求（UTF-8，不含换行符）
+     * 只能由连接的读取线程调用。请求处理完后应调用 {@link #release(Request)} 归还。
+     *
+     * @throws IOException 请求不是合法的 JSON
+     */
+    public Request decode(byte[] frame, int offset, int length) throws IOException {
+        Request request = spare.getAndSet(null);
+        if (request == null) {
+            request = new Request();
+        } else {
+            request.reset();
+        }
+
+        if (parser == null) {
+            parser = JsonMappers.factory().createNonBlockingByteArrayParser();
+        }
+        ByteArrayFeeder feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        feeder.feedInput(frame, offset, offset + length);
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                readObject(parser, request);
+                if (parser.currentToken() != JsonToken.END_OBJECT) {
+                    throw new IOException("请求不完整");
+                }
+            } else if (token != JsonToken.NOT_AVAILABLE) {
+                // 不是对象的请求按未知操作处理
+                parser.skipChildren();
+            }
+            if (token == JsonToken.NOT_AVAILABLE || !feeder.needMoreInput()) {
+                // 空行、没有结束的标量或根值之后还有内容，解析器状态无法复用
+                parser = null;
+            }
+        } catch (IOException e) {
+            parser = null;
+            throw e;
+        }
+        return request;
+    }
+
+    public Request decode(byte[] frame) throws IOException {
+        return decode(frame, 0, frame.length);
+    }
+
+    /**
+     * 归还处理完的请求对象，之后不能再使用它
+     */
+    public void release(Request request) {
+        spare.set(request);
+    }
+
+    private void readObject(JsonParser parser, Request request) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // 字段名由解析器的符号表统一，不会每次创建新字符串
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "action":
+                    request.setAction(readAction(parser));
+                    break;
+                case "username":
+                    request.setUsername(readUsername(parser));
+                    break;
+                case "password":
+                    request.setPassword(parser.getValueAsString(""));
+                    break;
+                case "oldPassword":
+                    request.setOldPassword(parser.getValueAsString(""));
+                    break;
+                case "newPassword":
+                    request.setNewPassword(parser.getValueAsString(""));
+                    break;
+                case "amount":
+                    request.setAmount(readAmount(parser));
+                    break;
+                case "token":
+                    request.setToken(parser.getValueAsString(""));
+                    break;
+                case "limit":
+                    request.setLimit(parser.getValueAsInt(0));
+                    break;
+                case "atomic":
+                    request.setAtomic(parser.getValueAsBoolean(false));
+                    break;
+                case "id":
+                    request.setId(readId(parser, token));
+                    break;
+                case "requests":
+                    if (token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            Request sub = new Request();
+                            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                                readObject(parser, sub);
+                            } else {
+                                parser.skipChildren();
+                            }
+                            request.getRequests().add(sub);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            // 跳过未读取的对象或数组值，标量值上是空操作
+            parser.skipChildren();
+        }
+    }
+
+    private static String readAction(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            char[] chars = parser.getTextCharacters();
+            int offset = parser.getTextOffset();
+            int length = parser.getTextLength();
+            for (String action : ACTIONS) {
+                if (matches(action, chars, offset, length)) {
+                    return action;
+                }
+            }
+        }
+        return parser.getValueAsString("");
+    }
+
+    private String readUsername(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING
+                && matches(lastUsername, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+            return lastUsername;
+        }
+        String username = parser.getValueAsString("");
+        lastUsername = username;
+        return username;
+    }
+
+    private static boolean matches(String value, char[] chars, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取以元为单位的金额并转换为分，第三位小数按 HALF_UP 舍入。
+     * 不含指数、整数部分不超过 15 位的小数直接从字符解析，其余数字交给 BigDecimal。
+     */
+    private static long readAmount(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            JsonParser.NumberType type = parser.getNumberType();
+            if (type == JsonParser.NumberType.INT) {
+                return parser.getLongValue() * 100;
+            } else if (type == JsonParser.NumberType.LONG) {
+                // 不用 Math.abs：Long.MIN_VALUE 取绝对值仍是负数，乘 100 会溢出
+                long yuan = parser.getLongValue();
+                if (yuan >= Long.MIN_VALUE / 100 && yuan <= Long.MAX_VALUE / 100) {
+                    return yuan * 100;
+                }
+            }
+            return Money.fromDecimal(parser.getDecimalValue());
+        } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            char[] chars = parser.getTextCharacters();
+            int i = parser.getTextOffset();
+            int end = i + parser.getTextLength();
+            boolean negative = chars[i] == '-';
+            if (negative) {
+                i++;
+            }
+            long cents = 0;
+            int wholeDigits = 0;
+            // 已计入 cents 的小数位数，-1 表示还没有遇到小数点
+            int scale = -1;
+            boolean roundUp = false;
+            for (; i < end; i++) {
+                char c = chars[i];
+                if (c >= '0' && c <= '9') {
+                    if (scale < 0) {
+                        cents = cents * 10 + (c - '0');
+                        wholeDigits++;
+                    } else if (scale < 2) {
+                        cents = cents * 10 + (c - '0');
+                        scale++;
+                    } else if (scale == 2) {
+                        // 只有第三位小数决定舍入方向，之后的位数不用再看
+                        roundUp = c >= '5';
+                        scale++;
+                    }
+                } else if (c == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    break;
+                }
+            }
+            if (i == end && wholeDigits <= MAX_FAST_WHOLE_DIGITS && scale >= 0) {
+                for (; scale < 2; scale++) {
+                    cents *= 10;
+                }
+                if (roundUp) {
+                    cents++;
+                }
+                return negative ? -cents : cents;
+            }
+            return Money.fromDecimal(parser.getDecimalValue());
+        }
+        return Money.fromDouble(parser.getValueAsDouble(0));
+    }
+
+    /**
+     * 读取 id，保存为 JSON 文本形式以便原样写回
+     */
+    private static String readId(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getText();
+            case VALUE_STRING:
+                return JsonMappers.mapper().writeValueAsString(parser.getText());
+            default:
+                return JsonMappers.mapper().readTree(parser).toString();
+        }
+    }
+
+    /**
+     * 编码响应（包括结尾的换行符）并交给 writer，可以由多个线程同时调用
+     */
+    public void encode(Response response, FrameWriter writer) throws IOException {
+        Encoder encoder = spareEncoder.getAndSet(null);
+        if (encoder == null) {
+            encoder = new Encoder();
+        }
+        try {
+            encoder.write(response);
+            writer.write(encoder.output.bytes, 0, encoder.output.count);
+        } finally {
+            encoder.output.count = 0;
+        }
+        spareEncoder.set(encoder);
+    }
+
+    /**
+     * 生成器和输出缓冲区，同一时间只由一个线程使用
+     */
+    private static final class Encoder {
+        private final Output output = new Output();
+        private final JsonGenerator generator;
+        private final char[] digits = new char[24];
+
+        Encoder() {
+            try {
+                generator = JsonMappers.factory().createGenerator(output);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            // 连续写出的响应之间不要自动插入空格
+            generator.setRootValueSeparator(null);
+        }
+
+        void write(Response response) throws IOException {
+            writeObject(response);
+            generator.writeRaw('\n');
+            generator.flush();
+        }
+
+        private void writeObject(Response response) throws IOException {
+            generator.writeStartObject();
+            if (response.getAction() != null) {
+                generator.writeStringField("action", response.getAction());
+            }
+            generator.writeStringField("status", response.getStatus());
+            if (response.getMessage() != null) {
+                generator.writeStringField("message", response.getMessage());
+            }
+            if (response.hasAmount()) {
+                generator.writeFieldName("amount");
+                writeMoney(response.getAmount());
+            }
+            if (response.hasBalance()) {
+                generator.writeFieldName("balance");
+                writeMoney(response.getBalance());
+            }
+            if (response.getResults() != null) {
+                generator.writeArrayFieldStart("results");
+                for (Response result : response.getResults()) {
+                    writeObject(result);
+                }
+                generator.writeEndArray();
+            }
+            if (response.hasTime()) {
+                generator.writeNumberField("time", response.getTime());
+            }
+            if (response.getToken() != null) {
+                generator.writeStringField("token", response.getToken());
+            }
+            if (response.getStats() != null) {
+                generator.writeObjectFieldStart("stats");
+                for (Map.Entry<String, Long> stat : response.getStats().entrySet()) {
+                    generator.writeNumberField(stat.getKey(), stat.getValue());
+                }
+                generator.writeEndObject();
+            }
+            if (response.hasApplied()) {
+                generator.writeNumberField("applied", response.getApplied());
+            }
+            if (response.getId() != null) {
+                generator.writeFieldName("id");
+                generator.writeRawValue(response.getId());
+            }
+            generator.writeEndObject();
+        }
+
+        /**
+         * 把以分为单位的金额写成元，格式与 Double.toString 的定点形式相同（如 12.5、12.0、0.01），
+         * 直接格式化到字符数组，不创建字符串
+         */
+        private void writeMoney(long cents) throws IOException {
+            int end = digits.length;
+            long abs = Math.abs(cents);
+            long fraction = abs % 100;
+            if (fraction % 10 != 0) {
+                digits[--end] = (char) ('0' + fraction % 10);
+                digits[--end] = (char) ('0' + fraction / 10);
+            } else {
+                digits[--end] = (char) ('0' + fraction / 10);
+            }
+            digits[--end] = '.';
+            long whole = abs / 100;
+            do {
+                digits[--end] = (char) ('0' + whole % 10);
+                whole /= 10;
+            } while (whole > 0);
+            if (cents < 0) {
+                digits[--end] = '-';
+            }
+            generator.writeNumber(digits, end, digits.length - end);
+        }
+    }
+
+    /**
+     * 可以反复清空的字节输出
+     */
+    private static final class Output extends OutputStream {
+        private byte[] bytes = new byte[256];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) {
+            ensureCapacity(count + length);
+            System.arraycopy(b, offset, bytes, count, length);
+            count += length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.harkerhand.backend.protocol;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 共享的 Jackson 对象
+ * 配置完成后的 ObjectMapper 和 JsonFactory 都是线程安全的，整个进程共用一份，
+ * 不再由每个连接各自创建。
+ */
+public class JsonMappers {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @return 共享的 ObjectMapper，不要修改它的配置
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * @return 共享的 JsonFactory，用于创建流式解析器和生成器
+     */
+    public static JsonFactory factory() {
+        return MAPPER.getFactory();
+    }
+}
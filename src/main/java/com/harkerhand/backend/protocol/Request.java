@@ -0,0 +1,145 @@
+package com.harkerhand.backend.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 与传输格式无关的请求
+ * JSON 和二进制编解码器都把请求解码为此对象，ClientHandler 只处理这一种表示。
+ */
+public class Request {
+    private String action = "";
+    private String username = "";
+    private String password = "";
+    private String oldPassword = "";
+    private String newPassword = "";
+    private long amount;
+    private boolean atomic;
+    private int limit;
+    private String token = "";
+    private String id;
+    private final List<Request> requests = new ArrayList<>();
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getOldPassword() {
+        return oldPassword;
+    }
+
+    public void setOldPassword(String oldPassword) {
+        this.oldPassword = oldPassword;
+    }
+
+    public String getNewPassword() {
+        return newPassword;
+    }
+
+    public void setNewPassword(String newPassword) {
+        this.newPassword = newPassword;
+    }
+
+    /**
+     * @return 金额（分）
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    /**
+     * @return batch 请求是否要求全部成功或全部不执行
+     */
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public void setAtomic(boolean atomic) {
+        this.atomic = atomic;
+    }
+
+    /**
+     * @return history 请求希望返回的记录数，未指定时为 0
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return 登录时发放的会话令牌，未携带时为空字符串
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return 关联 id 的 JSON 文本形式（数字原样，字符串带引号），没有 id 时返回null
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public boolean hasId() {
+        return id != null;
+    }
+
+    /**
+     * @return batch 请求的子请求
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * 清空所有字段，供编解码器复用同一个对象
+     */
+    void reset() {
+        action = "";
+        username = "";
+        password = "";
+        oldPassword = "";
+        newPassword = "";
+        amount = 0;
+        atomic = false;
+        limit = 0;
+        token = "";
+        id = null;
+        requests.clear();
+    }
+}
@@ -0,0 +1,195 @@
+package com.harkerhand.backend.protocol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 与传输格式无关的响应
+ * 未设置的可选字段不会出现在编码结果中。金额和余额以分为单位，由编解码器转换为传输格式。
+ */
+public class Response {
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private boolean success;
+    private String message;
+    private String action;
+    private long amount = UNSET;
+    private long balance = UNSET;
+    private int applied = -1;
+    private long time = UNSET;
+    private String token;
+    private List<Response> results;
+    private Map<String, Long> stats;
+    private String id;
+
+    public static Response success() {
+        Response response = new Response();
+        response.success = true;
+        return response;
+    }
+
+    public static Response success(String message) {
+        return success().message(message);
+    }
+
+    public static Response error(String message) {
+        return new Response().message(message);
+    }
+
+    public Response message(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public Response action(String action) {
+        this.action = action;
+        return this;
+    }
+
+    public Response amount(long amount) {
+        this.amount = amount;
+        return this;
+    }
+
+    public Response balance(long balance) {
+        this.balance = balance;
+        return this;
+    }
+
+    public Response applied(int applied) {
+        this.applied = applied;
+        return this;
+    }
+
+    /**
+     * @param time 记录发生的时间（毫秒时间戳），用于 history 的结果
+     */
+    public Response time(long time) {
+        this.time = time;
+        return this;
+    }
+
+    /**
+     * @param token 登录成功时发放的会话令牌
+     */
+    public Response token(String token) {
+        this.token = token;
+        return this;
+    }
+
+    public Response id(String id) {
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * 没有结果时也编码为空的 results 数组
+     */
+    public Response withResults() {
+        if (results == null) {
+            results = new ArrayList<>();
+        }
+        return this;
+    }
+
+    /**
+     * 追加一个 batch 子请求的结果或一条 history 记录
+     */
+    public Response addResult(Response result) {
+        if (results == null) {
+            results = new ArrayList<>();
+        }
+        results.add(result);
+        return this;
+    }
+
+    /**
+     * 追加一项服务器统计，用于 stats 的结果
+     */
+    public Response stat(String name, long value) {
+        if (stats == null) {
+            stats = new LinkedHashMap<>();
+        }
+        stats.put(name, value);
+        return this;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getStatus() {
+        return success ? "success" : "error";
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public boolean hasAmount() {
+        return amount != UNSET;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public boolean hasBalance() {
+        return balance != UNSET;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public boolean hasApplied() {
+        return applied >= 0;
+    }
+
+    public int getApplied() {
+        return applied;
+    }
+
+    public boolean hasTime() {
+        return time != UNSET;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return 会话令牌，没有时返回null
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return batch 子请求的结果或 history 记录，没有时返回null
+     */
+    public List<Response> getResults() {
+        return results;
+    }
+
+    /**
+     * @return 服务器统计，没有时返回null
+     */
+    public Map<String, Long> getStats() {
+        return stats;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
@@ -0,0 +1,151 @@
+package com.harkerhand.backend.security;
+
+import com.harkerhand.backend.config.ServerConfig;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 密码哈希服务
+ *
+ * 所有密码哈希都在固定大小的 password-hasher 线程池上计算，登录高峰最多占用这些线程，
+ * 不会与存取款争抢全部 CPU。线程池的等待队列有上限，队列已满时立即拒绝新的请求
+ * （抛出 {@link RejectedExecutionException}），由调用方返回“服务器繁忙”，而不是让请求无限排队。
+ *
+ * 支持两种算法，由每个账户保存的迭代次数区分:
+ * 0 为旧版本的 SHA-256（以 Base64 文本形式的盐值加密码计算），大于 0 为 PBKDF2-HMAC-SHA256。
+ * 新密码使用 {@link #iterations()} 配置的迭代次数，提高成本只影响登录和改密码，不影响存取款。
+ * MessageDigest 和 SecretKeyFactory 每个线程缓存一个，不必每次查找算法提供者。
+ */
+public final class PasswordService {
+    public static final int SALT_BYTES = 16;
+    public static final int HASH_BYTES = 32;
+    /**
+     * 账户文件中迭代次数占 3 个字节
+     */
+    public static final int MAX_ITERATIONS = 0xFFFFFF;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<SecretKeyFactory> PBKDF2 = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            ServerConfig.passwordThreads(), ServerConfig.passwordThreads(), 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, ServerConfig.passwordMaxQueue())),
+            Thread.ofPlatform().name("password-hasher-", 1).daemon(true).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+    private static final LongAdder rejected = new LongAdder();
+
+    private PasswordService() {
+    }
+
+    /**
+     * @return 新密码使用的 PBKDF2 迭代次数，0 表示旧版 SHA-256
+     */
+    public static int iterations() {
+        return Math.max(0, Math.min(MAX_ITERATIONS, ServerConfig.passwordIterations()));
+    }
+
+    /**
+     * @return 随机盐值
+     */
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * 在哈希线程池上计算密码哈希并等待结果
+     *
+     * @param password   密码
+     * @param salt       盐值
+     * @param iterations 迭代次数，0 表示旧版 SHA-256
+     * @return 32 字节的哈希
+     * @throws RejectedExecutionException 等待中的哈希请求过多
+     */
+    public static byte[] hash(String password, byte[] salt, int iterations) {
+        CompletableFuture<byte[]> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> compute(password, salt, iterations), executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 在哈希线程池上校验密码
+     *
+     * @throws RejectedExecutionException 等待中的哈希请求过多
+     */
+    public static boolean verify(String password, byte[] salt, byte[] hash, int iterations) {
+        return MessageDigest.isEqual(hash(password, salt, iterations), hash);
+    }
+
+    /**
+     * 在当前线程计算哈希
+     */
+    static byte[] compute(String password, byte[] salt, int iterations) {
+        if (iterations == 0) {
+            MessageDigest digest = SHA256.get();
+            digest.update(Base64.getEncoder().encode(salt));
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        }
+        // 密码按 UTF-8 编码作为 HMAC 密钥
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return PBKDF2.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @return 因等待队列已满被拒绝的哈希请求数
+     */
+    public static long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return 正在等待的哈希请求数
+     */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+}
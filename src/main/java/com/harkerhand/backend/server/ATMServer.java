@@ -1,53 +1,147 @@
 package com.harkerhand.backend.server;
 
+import java.io.IOException;
 import java.net.*;
 import java.util.concurrent.*;
 import java.util.logging.*;
 
 import com.harkerhand.backend.log.LoggerConfig;
 import com.harkerhand.backend.log.UserActivityLogger;
+import com.harkerhand.backend.config.ServerConfig;
+import com.harkerhand.backend.metrics.ServerMetrics;
+import com.harkerhand.backend.security.PasswordService;
+import com.harkerhand.backend.storage.Checkpointer;
 import com.harkerhand.backend.storage.UserStorage;
 import com.harkerhand.backend.service.InterestService;
 
 public class ATMServer {
-    public static final int PORT = 8888;
+    public static final int PORT = ServerConfig.serverPort();
     private static final Logger logger = Logger.getLogger("ATMServer");
-    private static final ConcurrentHashMap<String, Socket> onlineUsers = new ConcurrentHashMap<>();
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // 会话超时和空闲连接回收共用的定时器
+    private static final TimingWheel timer = new TimingWheel("server-timer", ServerConfig.timerTickMillis(), 512);
+    private static final SessionRegistry sessions = new SessionRegistry(
+            TimeUnit.SECONDS.toMillis(ServerConfig.sessionIdleTimeoutSeconds()), timer);
+    private static final ConnectionReaper reaper = new ConnectionReaper(timer,
+            TimeUnit.SECONDS.toMillis(ServerConfig.connectionIdleSeconds()),
+            TimeUnit.SECONDS.toMillis(ServerConfig.authenticatedConnectionIdleSeconds()));
+    private static final RequestThrottle throttle = RequestThrottle.fromConfig();
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
     public static void main(String[] args) throws Exception {
         // 设置系统日志
         LoggerConfig.setup();
+        // 配置错误时直接退出，不要等到存储类初始化时才以 ExceptionInInitializerError 失败
+        try {
+            ServerConfig.validate();
+        } catch (IllegalArgumentException e) {
+            logger.severe(e.getMessage());
+            System.exit(1);
+        }
         // 初始化用户活动日志
-        UserActivityLogger.initialize();
+        UserActivityLogger.initialize(UserStorage::userExists);
+        // 进程被终止时写出缓冲区中剩余的活动事件
+        Runtime.getRuntime().addShutdownHook(new Thread(UserActivityLogger::shutdown, "activity-shutdown"));
 
         logger.info("ATM Server starting...");
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            logger.info("ATM Server started on port " + PORT);
-
+        try {
             // 加载用户数据
             UserStorage.loadUsers();
             logger.info("User data loaded successfully");
+            // 进程被终止时等待已提交的日志记录落盘
+            Runtime.getRuntime().addShutdownHook(new Thread(UserStorage::close, "storage-shutdown"));
 
             // 启动利息计算服务，每10秒执行一次
             InterestService interestService = new InterestService();
             scheduler.scheduleAtFixedRate(interestService, 0, 10, TimeUnit.SECONDS);
             logger.info("Interest calculation service started");
 
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                String clientAddress = clientSocket.getInetAddress().getHostAddress();
-                logger.info("New client connected: " + clientAddress);
-                new Thread(new ClientHandler(clientSocket, onlineUsers)).start();
+            // 启动后台检查点服务，定期保存快照并回收日志
+            long checkpointInterval = ServerConfig.checkpointIntervalSeconds();
+            scheduler.scheduleWithFixedDelay(new Checkpointer(), checkpointInterval, checkpointInterval,
+                    TimeUnit.SECONDS);
+            logger.info("Checkpoint service started");
+
+            registerMetrics();
+
+            String mode = ServerConfig.serverMode();
+            logger.info("Server mode: " + mode);
+            if ("nio".equals(mode)) {
+                new NioServer(PORT, sessions, reaper, throttle, ServerConfig.nioWorkerThreads(),
+                        ServerConfig.nioPooledBuffers(), ServerConfig.pipelineMaxInFlight()).serve();
+            } else if ("virtual".equals(mode)) {
+                serveThreadPerConnection(Thread.ofVirtual().name("client-", 1).factory(),
+                        Executors.newVirtualThreadPerTaskExecutor());
+            } else {
+                serveThreadPerConnection(Thread.ofPlatform().name("client-", 1).factory(),
+                        Executors.newFixedThreadPool(ServerConfig.pipelineWorkerThreads(),
+                                Thread.ofPlatform().name("pipeline-worker-", 1).factory()));
             }
         } catch (Exception e) {
             logger.severe("Server error: " + e.getMessage());
             e.printStackTrace();
         } finally {
             logger.info("ATM Server shutting down");
+            UserStorage.saveUsers();
+            UserStorage.close();
             UserActivityLogger.shutdown();
             scheduler.shutdown();
         }
     }
+
+    /**
+     * 登记各组件的计数器和队列深度，并通过 JMX 暴露运行统计
+     */
+    private static void registerMetrics() {
+        ServerMetrics.registerGauge("sessions.active", sessions::getActiveSessions);
+        ServerMetrics.registerGauge("sessions.expired", sessions::getExpiredSessions);
+        ServerMetrics.registerGauge("connections.reaped", reaper::getReapedConnections);
+        ServerMetrics.registerGauge("requests.throttled", throttle::getRejected);
+        ServerMetrics.registerGauge("password.queue", PasswordService::getQueueDepth);
+        ServerMetrics.registerGauge("password.rejected", PasswordService::getRejectedCount);
+        ServerMetrics.registerGauge("activity.pending", UserActivityLogger::getPendingEvents);
+        ServerMetrics.registerGauge("activity.dropped", UserActivityLogger::getDroppedEvents);
+        ServerMetrics.registerGauge("statements.cached", UserActivityLogger::getCachedStatements);
+        ServerMetrics.registerGauge("checkpoints", Checkpointer::getCheckpointCount);
+        ServerMetrics.registerMBean();
+        logger.info("Metrics registered: " + ServerMetrics.OBJECT_NAME);
+    }
+
+    /**
+     * 每个连接使用一个线程处理
+     *
+     * @param threads          创建连接处理线程的工厂（平台线程或虚拟线程）
+     * @param pipelineExecutor 处理带 id 的流水线请求的线程池
+     */
+    private static void serveThreadPerConnection(ThreadFactory threads, ExecutorService pipelineExecutor)
+            throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+            logger.info("ATM Server started on port " + PORT);
+
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                String clientAddress = clientSocket.getInetAddress().getHostAddress();
+                logger.info("New client connected: " + clientAddress);
+                long readTimeout = ServerConfig.connectionReadTimeoutSeconds();
+                if (readTimeout > 0) {
+                    clientSocket.setSoTimeout(
+                            (int) Math.min(Integer.MAX_VALUE, TimeUnit.SECONDS.toMillis(readTimeout)));
+                }
+                ClientHandler handler = new ClientHandler(clientSocket, sessions, throttle, pipelineExecutor);
+                reaper.register(handler, () -> closeQuietly(clientSocket));
+                threads.newThread(handler).start();
+            }
+        }
+    }
+
+    /**
+     * 关闭空闲连接，阻塞在读取上的处理线程随之退出
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "关闭空闲连接时出错", e);
+        }
+    }
 }
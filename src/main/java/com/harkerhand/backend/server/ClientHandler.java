@@ -1,81 +1,98 @@
 package com.harkerhand.backend.server;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.harkerhand.backend.config.ServerConfig;
+import com.harkerhand.backend.metrics.ServerMetrics;
+import com.harkerhand.backend.protocol.BinaryCodec;
+import com.harkerhand.backend.protocol.JsonCodec;
+import com.harkerhand.backend.protocol.Request;
+import com.harkerhand.backend.protocol.Response;
 import com.harkerhand.backend.storage.UserStorage;
-import com.harkerhand.backend.model.User;
+import com.harkerhand.backend.log.ActivityRecord;
 import com.harkerhand.backend.log.UserActivityLogger;
+import com.harkerhand.backend.utils.Money;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ClientHandler implements Runnable {
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final int DEFAULT_HISTORY_ENTRIES = 20;
+
     private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private ObjectMapper mapper;
-    private ConcurrentHashMap<String, Socket> onlineUsers;
+    private SessionRegistry sessions;
+    private RequestThrottle throttle;
+    private Executor pipelineExecutor;
+    private final String remoteAddress;
+    // stats 操作只允许本机连接访问
+    private final boolean local;
+    // 在这个连接上登录的会话，连接断开时结束
+    private final Set<SessionRegistry.Session> ownedSessions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    // 多个线程写出的流水线响应不能交错；使用 ReentrantLock 而不是 synchronized，
+    // 虚拟线程在阻塞写入时不会占住载体线程
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 最后一个完整请求到达的时间和连接上是否有过有效的会话，供空闲连接回收使用
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+    private volatile boolean authenticated;
     private static final Logger logger = Logger.getLogger("ClientHandler");
 
-    public ClientHandler(Socket socket, ConcurrentHashMap<String, Socket> onlineUsers) {
+    public ClientHandler(Socket socket, SessionRegistry sessions, RequestThrottle throttle) {
+        this(socket, sessions, throttle, Runnable::run);
+    }
+
+    /**
+     * @param socket           客户端连接
+     * @param sessions         会话表
+     * @param throttle         请求限流
+     * @param pipelineExecutor 处理带 id 的流水线请求的线程池
+     */
+    public ClientHandler(Socket socket, SessionRegistry sessions, RequestThrottle throttle,
+                         Executor pipelineExecutor) {
         this.clientSocket = socket;
-        this.onlineUsers = onlineUsers;
-        this.mapper = new ObjectMapper();
-        try {
-            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.out = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "无法创建客户端处理器", e);
-        }
+        this.sessions = sessions;
+        this.throttle = throttle;
+        this.pipelineExecutor = pipelineExecutor;
+        this.remoteAddress = socket.getInetAddress().getHostAddress();
+        this.local = socket.getInetAddress().isLoopbackAddress();
+        ServerMetrics.connectionOpened();
     }
 
     @Override
     public void run() {
         try {
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                JsonNode request = mapper.readTree(inputLine);
-                String action = request.path("action").asText();
-                String response;
-
-                switch (action) {
-                    case "register":
-                        response = handleRegister(request);
-                        break;
-                    case "login":
-                        response = handleLogin(request);
-                        break;
-                    case "query":
-                        response = handleQuery(request);
-                        break;
-                    case "deposit":
-                        response = handleDeposit(request);
-                        break;
-                    case "withdraw":
-                        response = handleWithdraw(request);
-                        break;
-                    case "logout":
-                        response = handleLogout(request);
-                        break;
-                    case "change_password":
-                        response = handleChangePassword(request);
-                        break;
-                    default:
-                        ObjectNode errorResponse = mapper.createObjectNode();
-                        errorResponse.put("status", "error");
-                        errorResponse.put("message", "未知操作");
-                        response = errorResponse.toString();
-                }
-
-                out.println(response);
+            // 根据第一个字节判断客户端使用二进制协议还是 JSON
+            BufferedInputStream input = new BufferedInputStream(clientSocket.getInputStream());
+            input.mark(1);
+            int first = input.read();
+            input.reset();
+            if (first == (BinaryCodec.HANDSHAKE_FIRST_BYTE & 0xFF)) {
+                serveBinary(new DataInputStream(input));
+            } else if (first >= 0) {
+                serveJson(input);
             }
+        } catch (EOFException e) {
+            // 客户端在帧中间断开
+        } catch (SocketTimeoutException e) {
+            // 读取超时是空闲回收之外的兜底，正常情况下连接早已被回收
+            logger.info("客户端读取超时，关闭连接: " + remoteAddress());
         } catch (IOException e) {
             logger.log(Level.WARNING, "客户端连接异常", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            disconnected();
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -84,210 +101,541 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private String handleRegister(JsonNode request) {
-        String username = request.path("username").asText();
-        String password = request.path("password").asText();
+    /**
+     * @return 最后一个完整请求到达的时间（毫秒）
+     */
+    long lastActivityMillis() {
+        return lastActivityMillis;
+    }
+
+    /**
+     * @return 连接上是否登录过或使用过有效的会话
+     */
+    boolean isAuthenticated() {
+        return authenticated;
+    }
 
-        ObjectNode response = mapper.createObjectNode();
+    boolean isDisconnected() {
+        return disconnected.get();
+    }
+
+    String remoteAddress() {
+        return remoteAddress;
+    }
 
-        if (UserStorage.userExists(username)) {
-            response.put("status", "error");
-            response.put("message", "用户名已存在");
-        } else {
-            UserStorage.addUser(username, password);
-            response.put("status", "success");
-            response.put("message", "用户注册成功");
-            logger.info("用户注册: " + username);
+    /**
+     * 连接断开时结束在这个连接上登录、尚未注销的会话
+     */
+    void disconnected() {
+        if (disconnected.compareAndSet(false, true)) {
+            ServerMetrics.connectionClosed();
         }
+        for (SessionRegistry.Session session : ownedSessions) {
+            endOwnedSession(session);
+        }
+    }
 
-        return response.toString();
+    private void endOwnedSession(SessionRegistry.Session session) {
+        ownedSessions.remove(session);
+        if (sessions.close(session)) {
+            logger.info("连接断开，结束会话: " + session.getUsername());
+            UserActivityLogger.logUserAction(session.getUsername(), "连接断开");
+        }
     }
 
-    private String handleLogin(JsonNode request) {
-        String username = request.path("username").asText();
-        String password = request.path("password").asText();
+    private void serveJson(InputStream input) throws IOException, InterruptedException {
+        LineReader in = new LineReader(input, MAX_FRAME_BYTES);
+        OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+        JsonCodec codec = new JsonCodec();
+        JsonCodec.FrameWriter writer = (bytes, offset, length) -> {
+            writeLock.lock();
+            try {
+                out.write(bytes, offset, length);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        };
+        RequestPipeline pipeline = new RequestPipeline(this, pipelineExecutor, (request, response) -> {
+            try {
+                codec.encode(response, writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                codec.release(request);
+            }
+        }, ServerConfig.pipelineMaxInFlight());
 
-        ObjectNode response = mapper.createObjectNode();
+        int length;
+        while ((length = in.readLine()) >= 0) {
+            pipeline.submit(codec.decode(in.buffer(), in.lineOffset(), length));
+        }
+    }
 
-        String ipAddress = clientSocket.getInetAddress().getHostAddress();
+    private void serveBinary(DataInputStream in) throws IOException, InterruptedException {
+        OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+        byte[] handshake = new byte[BinaryCodec.HANDSHAKE_BYTES];
+        in.readFully(handshake);
+        byte[] reply = BinaryCodec.acceptHandshake(ByteBuffer.wrap(handshake));
+        out.write(reply);
+        out.flush();
+        if (reply[BinaryCodec.HANDSHAKE_BYTES - 1] == 0) {
+            return;
+        }
 
-        if (onlineUsers.containsKey(username)) {
-            response.put("status", "error");
-            response.put("message", "用户已在其他地方登录");
-            UserActivityLogger.logLogin(username, ipAddress, false);
-        } else if (UserStorage.validateUser(username, password)) {
-            onlineUsers.put(username, clientSocket);
-            response.put("status", "success");
-            response.put("message", "登录成功");
-            logger.info("用户登录: " + username);
-            UserActivityLogger.logLogin(username, ipAddress, true);
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户名或密码错误");
-            UserActivityLogger.logLogin(username, ipAddress, false);
+        RequestPipeline pipeline = new RequestPipeline(this, pipelineExecutor, (request, response) -> {
+            byte[] frame = BinaryCodec.encode(response);
+            writeLock.lock();
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                writeLock.unlock();
+            }
+        }, ServerConfig.pipelineMaxInFlight());
+
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length <= 0 || length > MAX_FRAME_BYTES) {
+                throw new IOException("请求帧长度无效: " + length);
+            }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            pipeline.submit(BinaryCodec.decode(ByteBuffer.wrap(frame)));
+        }
+    }
+
+    /**
+     * 处理请求并返回响应，与连接的 I/O 方式和协议格式无关。请求中的 id 会原样带回响应。
+     *
+     * @param request 请求
+     * @return 响应
+     */
+    Response handle(Request request) {
+        lastActivityMillis = System.currentTimeMillis();
+        String action = request.getAction();
+        if (!throttle.admitAddress(action, remoteAddress)
+                || (("register".equals(action) || "login".equals(action)) && !admitUser(request))) {
+            // 被限流的请求不计算哈希、不写日志
+            return throttled().id(request.getId());
+        }
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = dispatch(request.getAction(), request);
+        } catch (UncheckedIOException e) {
+            logger.log(Level.SEVERE, "保存用户数据失败", e);
+            response = Response.error("数据保存失败，请稍后重试");
+        } catch (RejectedExecutionException e) {
+            // 密码哈希排队已满，直接拒绝而不是让请求继续排队
+            response = Response.error("服务器繁忙，请稍后重试");
         }
+        ServerMetrics.recordRequest(request.getAction(), System.nanoTime() - start, response.isSuccess());
+        return response.id(request.getId());
+    }
 
-        return response.toString();
+    /**
+     * 按用户限流，需要会话的请求在会话校验通过之后调用
+     */
+    private boolean admitUser(Request request) {
+        return throttle.admitUser(request.getAction(), remoteAddress, request.getUsername());
     }
 
-    private String handleQuery(JsonNode request) {
-        String username = request.path("username").asText();
-        ObjectNode response = mapper.createObjectNode();
+    private static Response throttled() {
+        return Response.error("请求过于频繁，请稍后重试");
+    }
 
-        if (!onlineUsers.containsKey(username) || !isUserSessionValid(username)) {
-            response.put("status", "error");
-            response.put("message", "用户未登录");
-            return response.toString();
+    private Response dispatch(String action, Request request) {
+        Response response;
+        switch (action) {
+            case "register":
+                response = handleRegister(request);
+                break;
+            case "login":
+                response = handleLogin(request);
+                break;
+            case "query":
+                response = handleQuery(request);
+                break;
+            case "deposit":
+                response = handleDeposit(request);
+                break;
+            case "withdraw":
+                response = handleWithdraw(request);
+                break;
+            case "logout":
+                response = handleLogout(request);
+                break;
+            case "change_password":
+                response = handleChangePassword(request);
+                break;
+            case "batch":
+                response = handleBatch(request);
+                break;
+            case "history":
+                response = handleHistory(request);
+                break;
+            case "statement":
+                response = handleStatement(request);
+                break;
+            case "stats":
+                response = handleStats();
+                break;
+            default:
+                response = Response.error("未知操作");
         }
+        return response;
+    }
 
-        User user = UserStorage.getUser(username);
-        if (user != null) {
-            response.put("status", "success");
-            response.put("balance", user.getBalance());
-            logger.info("用户查询余额: " + username + ", 余额: " + user.getBalance());
-            UserActivityLogger.logBalanceCheck(username);
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户不存在");
+    private Response handleRegister(Request request) {
+        String username = request.getUsername();
+        String password = request.getPassword();
+
+        if (!UserStorage.isValidUsername(username)) {
+            return Response.error("用户名为空或过长");
+        } else if (UserStorage.userExists(username) || !UserStorage.addUser(username, password)) {
+            return Response.error("用户名已存在");
         }
 
-        return response.toString();
+        logger.info("用户注册: " + username);
+        return Response.success("用户注册成功");
     }
 
-    private String handleDeposit(JsonNode request) {
-        String username = request.path("username").asText();
-        double amount = request.path("amount").asDouble();
+    private Response handleLogin(Request request) {
+        String username = request.getUsername();
+        String password = request.getPassword();
 
-        ObjectNode response = mapper.createObjectNode();
+        String ipAddress = remoteAddress();
 
-        if (!onlineUsers.containsKey(username) || !isUserSessionValid(username)) {
-            response.put("status", "error");
-            response.put("message", "用户未登录");
-            return response.toString();
+        if (sessions.byUser(username) != null) {
+            UserActivityLogger.logLogin(username, ipAddress, false);
+            return Response.error("用户已在其他地方登录");
+        } else if (!UserStorage.validateUser(username, password)) {
+            UserActivityLogger.logLogin(username, ipAddress, false);
+            return Response.error("用户名或密码错误");
         }
 
-        if (amount <= 0) {
-            response.put("status", "error");
-            response.put("message", "存款金额必须大于零");
-            return response.toString();
+        SessionRegistry.Session session = sessions.open(username, this);
+        if (session == null) {
+            // 校验密码期间同一用户在其他连接上登录成功
+            UserActivityLogger.logLogin(username, ipAddress, false);
+            return Response.error("用户已在其他地方登录");
+        }
+        ownedSessions.add(session);
+        authenticated = true;
+        if (disconnected.get()) {
+            // 流水线中的登录请求在连接断开之后才完成
+            endOwnedSession(session);
         }
+        logger.info("用户登录: " + username);
+        UserActivityLogger.logLogin(username, ipAddress, true);
+        return Response.success("登录成功").token(session.getToken());
+    }
 
-        User user = UserStorage.getUser(username);
-        if (user != null) {
-            user.deposit(amount);
-            UserStorage.updateUser(user);
+    /**
+     * 校验请求的会话：带令牌的请求按令牌查找，可以来自任意连接；不带令牌的请求只在登录所用的连接上有效。
+     * 会话的用户名必须与请求中的用户名一致。
+     *
+     * @return 有效的会话，未登录时返回null
+     */
+    private SessionRegistry.Session authenticate(Request request) {
+        String token = request.getToken();
+        SessionRegistry.Session session = token.isEmpty()
+                ? sessions.byUser(request.getUsername())
+                : sessions.byToken(token);
+        if (session == null || session.isClosed() || !session.getUsername().equals(request.getUsername())
+                || (token.isEmpty() && !session.isOwnedBy(this))) {
+            return null;
+        }
+        session.touch();
+        authenticated = true;
+        return session;
+    }
+
+    private Response handleQuery(Request request) {
+        String username = request.getUsername();
 
-            response.put("status", "success");
-            response.put("amount", amount); // 添加存款金额到响应中
-            response.put("balance", user.getBalance()); // 添加更新后的余额到响应中
-            logger.info("用户存款: " + username + ", 金额: " + amount + ", 余额: " + user.getBalance());
-            UserActivityLogger.logDeposit(username, amount);
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户不存在");
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
         }
 
-        return response.toString();
+        long balance = UserStorage.getBalance(username);
+        if (balance == UserStorage.NO_ACCOUNT) {
+            return Response.error("用户不存在");
+        }
+
+        logger.info("用户查询余额: " + username + ", 余额: " + Money.format(balance));
+        UserActivityLogger.logBalanceCheck(username);
+        return Response.success().balance(balance);
     }
 
-    private String handleWithdraw(JsonNode request) {
-        String username = request.path("username").asText();
-        double amount = request.path("amount").asDouble();
+    private Response handleDeposit(Request request) {
+        String username = request.getUsername();
+        long amount = request.getAmount();
 
-        ObjectNode response = mapper.createObjectNode();
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+        if (!admitUser(request)) {
+            return throttled();
+        }
+
+        if (amount <= 0) {
+            return Response.error("存款金额必须大于零");
+        } else if (amount > Money.MAX_AMOUNT) {
+            return Response.error("存款金额超过单笔上限");
+        }
+
+        long balance = UserStorage.deposit(username, amount);
+        if (balance == UserStorage.NO_ACCOUNT) {
+            return Response.error("用户不存在");
+        } else if (balance == UserStorage.BALANCE_LIMIT_EXCEEDED) {
+            return Response.error("存款后余额超过上限");
+        }
+
+        logger.info("用户存款: " + username + ", 金额: " + Money.format(amount) + ", 余额: " + Money.format(balance));
+        UserActivityLogger.logDeposit(username, amount);
+        return Response.success().amount(amount).balance(balance);
+    }
+
+    private Response handleWithdraw(Request request) {
+        String username = request.getUsername();
+        long amount = request.getAmount();
 
-        if (!onlineUsers.containsKey(username) || !isUserSessionValid(username)) {
-            response.put("status", "error");
-            response.put("message", "用户未登录");
-            return response.toString();
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+        if (!admitUser(request)) {
+            return throttled();
         }
 
         if (amount <= 0) {
-            response.put("status", "error");
-            response.put("message", "取款金额必须大于零");
-            return response.toString();
-        }
-
-        User user = UserStorage.getUser(username);
-        if (user != null) {
-            if (user.getBalance() >= amount) {
-                user.withdraw(amount);
-                UserStorage.updateUser(user);
-
-                response.put("status", "success");
-                response.put("amount", amount); // 添加取款金额到响应中
-                response.put("balance", user.getBalance()); // 添加更新后的余额到响应中
-                logger.info("用户取款: " + username + ", 金额: " + amount + ", 余额: " + user.getBalance());
-                UserActivityLogger.logWithdrawal(username, amount, true);
-            } else {
-                response.put("status", "error");
-                response.put("message", "余额不足");
-                UserActivityLogger.logWithdrawal(username, amount, false);
-            }
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户不存在");
+            return Response.error("取款金额必须大于零");
+        } else if (amount > Money.MAX_AMOUNT) {
+            return Response.error("取款金额超过单笔上限");
         }
 
-        return response.toString();
+        long balance = UserStorage.withdraw(username, amount);
+        if (balance == UserStorage.NO_ACCOUNT) {
+            return Response.error("用户不存在");
+        } else if (balance == UserStorage.INSUFFICIENT_FUNDS) {
+            UserActivityLogger.logWithdrawal(username, amount, false);
+            return Response.error("余额不足");
+        }
+
+        logger.info("用户取款: " + username + ", 金额: " + Money.format(amount) + ", 余额: " + Money.format(balance));
+        UserActivityLogger.logWithdrawal(username, amount, true);
+        return Response.success().amount(amount).balance(balance);
     }
 
-    private String handleLogout(JsonNode request) {
-        String username = request.path("username").asText();
+    private Response handleLogout(Request request) {
+        String username = request.getUsername();
+
+        SessionRegistry.Session session = authenticate(request);
+        if (session == null || !sessions.close(session)) {
+            return Response.error("用户未登录");
+        }
+        ownedSessions.remove(session);
 
-        ObjectNode response = mapper.createObjectNode();
+        logger.info("用户注销: " + username);
+        UserActivityLogger.logLogout(username);
+        return Response.success("注销成功");
+    }
 
-        if (onlineUsers.remove(username) != null) {
-            response.put("status", "success");
-            response.put("message", "注销成功");
-            logger.info("用户注销: " + username);
-            UserActivityLogger.logLogout(username);
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户未登录");
+    private Response handleChangePassword(Request request) {
+        String username = request.getUsername();
+        String oldPassword = request.getOldPassword();
+        String newPassword = request.getNewPassword();
+
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+        if (!admitUser(request)) {
+            return throttled();
         }
 
-        return response.toString();
+        if (!UserStorage.userExists(username)) {
+            return Response.error("用户不存在");
+        }
+
+        if (!UserStorage.changePassword(username, oldPassword, newPassword)) {
+            UserActivityLogger.logPasswordChange(username, false);
+            return Response.error("原密码错误");
+        }
+
+        logger.info("用户修改密码: " + username);
+        UserActivityLogger.logPasswordChange(username, true);
+        return Response.success("密码修改成功");
     }
 
-    private String handleChangePassword(JsonNode request) {
-        String username = request.path("username").asText();
-        String oldPassword = request.path("oldPassword").asText();
-        String newPassword = request.path("newPassword").asText();
+    /**
+     * 批量存取款：同一用户的多笔 deposit/withdraw 只校验一次会话，并在一次日志提交内完成。
+     * atomic 为 true 时任意一笔无效或余额不足则全部不执行，否则逐笔尽力执行。
+     * 每个子请求的结果按顺序放在 results 数组中。
+     */
+    private Response handleBatch(Request request) {
+        String username = request.getUsername();
+        boolean atomic = request.isAtomic();
+        List<Request> requests = request.getRequests();
+
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+        if (!admitUser(request)) {
+            return throttled();
+        }
+
+        if (requests.isEmpty()) {
+            return Response.error("批量请求为空");
+        }
 
-        ObjectNode response = mapper.createObjectNode();
+        if (requests.size() > ServerConfig.batchMaxRequests()) {
+            return Response.error("批量请求数量超过上限 " + ServerConfig.batchMaxRequests());
+        }
 
-        if (!onlineUsers.containsKey(username) || !isUserSessionValid(username)) {
-            response.put("status", "error");
-            response.put("message", "用户未登录");
-            return response.toString();
+        // 先校验所有子请求，只把合法的变更交给存储层
+        int size = requests.size();
+        String[] errors = new String[size];
+        long[] changes = new long[size];
+        int[] slots = new int[size];
+        int validCount = 0;
+        for (int i = 0; i < size; i++) {
+            Request sub = requests.get(i);
+            String action = sub.getAction();
+            long amount = sub.getAmount();
+            if (!"deposit".equals(action) && !"withdraw".equals(action)) {
+                errors[i] = "批量请求只支持存款和取款";
+            } else if (amount <= 0) {
+                errors[i] = "deposit".equals(action) ? "存款金额必须大于零" : "取款金额必须大于零";
+            } else if (amount > Money.MAX_AMOUNT) {
+                errors[i] = "deposit".equals(action) ? "存款金额超过单笔上限" : "取款金额超过单笔上限";
+            } else {
+                changes[validCount] = "deposit".equals(action) ? amount : -amount;
+                slots[i] = validCount++;
+            }
         }
 
-        User user = UserStorage.getUser(username);
-        if (user != null) {
-            if (user.validatePassword(oldPassword)) {
-                user.setPassword(newPassword);
-                UserStorage.updateUser(user);
+        long[] balances = null;
+        if (!atomic || validCount == size) {
+            balances = UserStorage.applyBalanceChanges(username, Arrays.copyOf(changes, validCount), atomic);
+            if (balances == null) {
+                return Response.error("用户不存在");
+            }
+        }
 
-                response.put("status", "success");
-                response.put("message", "密码修改成功");
-                logger.info("用户修改密码: " + username);
-                UserActivityLogger.logPasswordChange(username, true);
+        boolean rejected = validCount < size;
+        if (balances != null) {
+            for (long balance : balances) {
+                rejected |= balance < 0;
+            }
+        }
+        boolean rolledBack = atomic && rejected;
+
+        Response response = rolledBack ? Response.error("批量操作中有失败的请求，全部未执行") : Response.success();
+        int applied = 0;
+        for (int i = 0; i < size; i++) {
+            Request sub = requests.get(i);
+            String action = sub.getAction();
+            long amount = sub.getAmount();
+            Response result;
+            if (errors[i] != null) {
+                result = Response.error(errors[i]);
+            } else if (balances == null) {
+                result = Response.error("未执行");
+            } else if (balances[slots[i]] == UserStorage.INSUFFICIENT_FUNDS) {
+                result = Response.error("余额不足");
+                UserActivityLogger.logWithdrawal(username, amount, false);
+            } else if (balances[slots[i]] == UserStorage.BALANCE_LIMIT_EXCEEDED) {
+                result = Response.error("存款后余额超过上限");
+            } else if (rolledBack) {
+                result = Response.error("未执行");
             } else {
-                response.put("status", "error");
-                response.put("message", "原密码错误");
-                UserActivityLogger.logPasswordChange(username, false);
+                result = Response.success().amount(amount).balance(balances[slots[i]]);
+                if ("deposit".equals(action)) {
+                    UserActivityLogger.logDeposit(username, amount);
+                } else {
+                    UserActivityLogger.logWithdrawal(username, amount, true);
+                }
+                applied++;
             }
-        } else {
-            response.put("status", "error");
-            response.put("message", "用户不存在");
+            response.addResult(result.action(action));
         }
 
-        return response.toString();
+        logger.info("用户批量存取款: " + username + ", 请求数: " + size + ", 成功: " + applied
+                + (atomic ? "（原子）" : ""));
+        return response.applied(applied).balance(UserStorage.getBalance(username));
     }
 
-    private boolean isUserSessionValid(String username) {
-        Socket userSocket = onlineUsers.get(username);
-        return userSocket != null && userSocket.equals(clientSocket);
+    /**
+     * 查询最近的活动记录（从新到旧），limit 未指定时返回 {@link #DEFAULT_HISTORY_ENTRIES} 条，
+     * 最多返回 {@link ServerConfig#historyMaxEntries()} 条。每条记录放在 results 数组中，
+     * 带有 action、status、time（毫秒时间戳），存取款和利息带有 amount，登录等记录的附加信息在 message 中。
+     */
+    private Response handleHistory(Request request) {
+        String username = request.getUsername();
+
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+
+        int limit = request.getLimit() > 0 ? request.getLimit() : DEFAULT_HISTORY_ENTRIES;
+        limit = Math.min(limit, ServerConfig.historyMaxEntries());
+
+        Response response = Response.success().withResults();
+        for (ActivityRecord record : UserActivityLogger.history(username, limit)) {
+            Response entry = record.isSuccess() ? Response.success() : Response.error(null);
+            entry.action(record.getAction()).time(record.getTimeMillis()).message(record.getText());
+            if (record.hasAmount()) {
+                entry.amount(record.getAmount());
+            }
+            response.addResult(entry);
+        }
+        return response;
+    }
+
+    /**
+     * 迷你对账单：当前余额和最近的交易（从新到旧），来自内存中的对账单缓存。
+     * limit 未指定时返回缓存保留的全部条数（{@link ServerConfig#statementEntries()}）。
+     */
+    private Response handleStatement(Request request) {
+        String username = request.getUsername();
+
+        if (authenticate(request) == null) {
+            return Response.error("用户未登录");
+        }
+
+        // 先读余额：补计的利息会先记录为交易，再读取对账单
+        long balance = UserStorage.getBalance(username);
+        if (balance == UserStorage.NO_ACCOUNT) {
+            return Response.error("用户不存在");
+        }
+
+        int limit = request.getLimit() > 0 ? request.getLimit() : ServerConfig.statementEntries();
+        Response response = Response.success().withResults().balance(balance);
+        for (ActivityRecord record : UserActivityLogger.statement(username, limit)) {
+            response.addResult(Response.success().action(record.getAction()).time(record.getTimeMillis())
+                    .amount(record.getAmount()));
+        }
+        return response;
+    }
+
+    /**
+     * 服务器统计：连接数、队列深度、每个操作的请求数、失败数和耗时百分位数等，放在 stats 对象中。
+     * 只接受来自本机的连接，不需要登录。
+     */
+    private Response handleStats() {
+        if (!local) {
+            return Response.error("未知操作");
+        }
+        Response response = Response.success();
+        ServerMetrics.stats().forEach(response::stat);
+        return response;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package com.harkerhand.backend.server;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 空闲连接回收
+ *
+ * 每个连接在服务器定时器（{@link TimingWheel}）上挂一个检查任务，到期时如果连接在阈值内没有完整的请求，
+ * 就关闭它；否则按剩余时间重新挂上。未登录的连接阈值较短，已登录的较长，
+ * 放弃的终端和半开的 TCP 连接因此不会一直占着处理线程和缓冲区。
+ * 关闭连接会结束它拥有的会话（见 {@link ClientHandler#disconnected()}）。
+ */
+public final class ConnectionReaper {
+    private static final Logger logger = Logger.getLogger("ConnectionReaper");
+
+    private final TimingWheel timer;
+    private final long idleMillis;
+    private final long authenticatedIdleMillis;
+    private final LongAdder reapedUnauthenticated = new LongAdder();
+    private final LongAdder reapedAuthenticated = new LongAdder();
+
+    /**
+     * @param timer                   服务器定时器
+     * @param idleMillis              未登录连接的空闲阈值（毫秒），0 表示不回收
+     * @param authenticatedIdleMillis 已登录连接的空闲阈值（毫秒），0 表示不回收
+     */
+    ConnectionReaper(TimingWheel timer, long idleMillis, long authenticatedIdleMillis) {
+        this.timer = timer;
+        this.idleMillis = idleMillis;
+        this.authenticatedIdleMillis = authenticatedIdleMillis;
+    }
+
+    /**
+     * 开始跟踪一个连接
+     *
+     * @param handler 连接的处理器，提供最后活动时间和登录状态
+     * @param close   关闭连接的操作，在定时器线程上执行，不能阻塞
+     */
+    void register(ClientHandler handler, Runnable close) {
+        if (idleMillis > 0 || authenticatedIdleMillis > 0) {
+            schedule(handler, close, threshold(handler));
+        }
+    }
+
+    private void schedule(ClientHandler handler, Runnable close, long delayMillis) {
+        timer.schedule(() -> check(handler, close), delayMillis);
+    }
+
+    private long threshold(ClientHandler handler) {
+        long threshold = handler.isAuthenticated() ? authenticatedIdleMillis : idleMillis;
+        // 阈值为 0 的状态不回收，但登录状态可能改变，仍然定期检查
+        return threshold > 0 ? threshold : Math.max(idleMillis, authenticatedIdleMillis);
+    }
+
+    private void check(ClientHandler handler, Runnable close) {
+        if (handler.isDisconnected()) {
+            return;
+        }
+        boolean authenticated = handler.isAuthenticated();
+        long threshold = authenticated ? authenticatedIdleMillis : idleMillis;
+        long idle = System.currentTimeMillis() - handler.lastActivityMillis();
+        if (threshold <= 0 || idle < threshold) {
+            schedule(handler, close, threshold > 0 ? threshold - idle : threshold(handler));
+            return;
+        }
+        (authenticated ? reapedAuthenticated : reapedUnauthenticated).increment();
+        logger.info("关闭空闲连接: " + handler.remoteAddress() + (authenticated ? "（已登录）" : "")
+                + ", 空闲 " + idle / 1000 + " 秒");
+        close.run();
+    }
+
+    /**
+     * @return 因空闲被关闭的未登录连接数
+     */
+    public long getReapedUnauthenticated() {
+        return reapedUnauthenticated.sum();
+    }
+
+    /**
+     * @return 因空闲被关闭的已登录连接数
+     */
+    public long getReapedAuthenticated() {
+        return reapedAuthenticated.sum();
+    }
+
+    /**
+     * @return 因空闲被关闭的连接总数
+     */
+    public long getReapedConnections() {
+        return reapedUnauthenticated.sum() + reapedAuthenticated.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package com.harkerhand.backend.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 从输入流中读取以换行分隔的帧
+ * 所有行都读入同一个缓冲区，不像 BufferedReader.readLine 那样为每一行创建字符串。
+ */
+class LineReader {
+    private final InputStream in;
+    private final int maxLineBytes;
+    private byte[] buffer = new byte[1024];
+    private int position;
+    private int limit;
+    private int lineOffset;
+
+    LineReader(InputStream in, int maxLineBytes) {
+        this.in = in;
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * 读取下一行，行内容通过 {@link #buffer()} 和 {@link #lineOffset()} 访问，下次调用前有效
+     *
+     * @return 行的字节数（不含结尾的 \r\n），流结束时返回 -1
+     * @throws IOException 读取失败或行超过长度上限
+     */
+    int readLine() throws IOException {
+        int scan = position;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineOffset = position;
+                    position = i + 1;
+                    int end = i > lineOffset && buffer[i - 1] == '\r' ? i - 1 : i;
+                    return end - lineOffset;
+                }
+            }
+
+            // 没有完整的行，把剩余数据移到缓冲区开头后继续读取
+            int pending = limit - position;
+            if (pending >= maxLineBytes) {
+                throw new IOException("请求帧过长");
+            }
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, pending);
+                position = 0;
+                limit = pending;
+            } else if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxLineBytes + 1));
+            }
+            scan = limit;
+
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                if (limit == position) {
+                    return -1;
+                }
+                // 最后一行没有换行符
+                lineOffset = position;
+                int length = limit - position;
+                position = limit;
+                return length;
+            }
+            limit += n;
+        }
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int lineOffset() {
+        return lineOffset;
+    }
+}
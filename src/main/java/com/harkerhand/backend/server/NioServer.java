@@ -0,0 +1,467 @@
+package com.harkerhand.backend.server;
+
+import com.harkerhand.backend.protocol.BinaryCodec;
+import com.harkerhand.backend.protocol.JsonCodec;
+import com.harkerhand.backend.protocol.Request;
+import com.harkerhand.backend.protocol.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 基于 Selector 的服务器引擎
+ * 一个 Selector 线程负责所有连接的读写，从缓冲池借用缓冲区切分出以换行分隔的 JSON 帧
+ * 或长度前缀的二进制帧（见 {@link BinaryCodec}），完整的请求交给小型工作线程池处理。
+ * 请求的排序规则见 {@link RequestPipeline}，协议与线程模式完全相同。
+ * 每个连接已收到但未处理完的请求达到上限，或者还有响应没能写出时，Selector 不再读取该连接，
+ * 未读的数据留在内核缓冲区中，由 TCP 流量控制让客户端停下来。
+ */
+public class NioServer {
+    private static final Logger logger = Logger.getLogger("NioServer");
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private final int port;
+    private final SessionRegistry sessions;
+    private final ConnectionReaper reaper;
+    private final RequestThrottle throttle;
+    private final ExecutorService workers;
+    private final BufferPool pool;
+    private final int maxInFlight;
+    // 需要在 Selector 线程上更新关注事件的连接
+    private final ConcurrentLinkedQueue<Connection> pendingInterest = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    public NioServer(int port, SessionRegistry sessions, ConnectionReaper reaper, RequestThrottle throttle,
+                     int workerThreads, int pooledBuffers, int maxInFlight) {
+        this.port = port;
+        this.sessions = sessions;
+        this.reaper = reaper;
+        this.throttle = throttle;
+        this.pool = new BufferPool(BUFFER_SIZE, pooledBuffers);
+        this.maxInFlight = maxInFlight;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads,
+                r -> new Thread(r, "nio-worker-" + threadIndex.incrementAndGet()));
+    }
+
+    /**
+     * 运行事件循环，直到发生致命错误
+     */
+    public void serve() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+            this.selector = selector;
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            logger.info("ATM Server (nio) started on port " + port);
+
+            while (true) {
+                selector.select();
+
+                Connection pending;
+                while ((pending = pendingInterest.poll()) != null) {
+                    pending.updateInterest();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server);
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        logger.info("New client connected: " + channel.socket().getInetAddress().getHostAddress());
+    }
+
+    /**
+     * 单个客户端连接的状态
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ClientHandler handler;
+        private final RequestPipeline pipeline;
+        private final JsonCodec codec = new JsonCodec();
+        private final JsonCodec.FrameWriter writer = this::send;
+        private final ConcurrentLinkedQueue<byte[]> requests = new ConcurrentLinkedQueue<>();
+        // 已切分出但还没有处理完的请求数
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private SelectionKey key;
+        // 跨越多次读取的未完成帧，只有出现半帧时才分配
+        private byte[] partial;
+        private int partialLength;
+        // 由第一个字节决定，之后不再改变
+        private volatile boolean binary;
+        private boolean protocolKnown;
+        private boolean handshaken;
+        // 请求数达到上限，暂停读取；只由 Selector 线程置位
+        private volatile boolean readPaused;
+        // 还有排队的响应没有写出，需要关注 OP_WRITE；在 writeLock 内修改
+        private volatile boolean writeArmed;
+        // 握手被拒绝，排队的回复写完后关闭连接；在 writeLock 内读取
+        private volatile boolean closeAfterFlush;
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.handler = new ClientHandler(channel.socket(), sessions, throttle);
+            // 工作线程不能阻塞等待处理名额，由 Selector 线程暂停读取来限制请求数
+            this.pipeline = new RequestPipeline(handler, workers, this::respond, 0, this::completed);
+            reaper.register(handler, this::close);
+        }
+
+        /**
+         * 在 Selector 线程上读取数据并切分出完整的帧
+         */
+        void read() throws IOException {
+            ByteBuffer buffer = pool.acquire();
+            try {
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+                if (!protocolKnown) {
+                    binary = buffer.get(0) == BinaryCodec.HANDSHAKE_FIRST_BYTE;
+                    protocolKnown = true;
+                }
+
+                boolean received = false;
+                int limit = buffer.limit();
+                if (binary) {
+                    appendPartial(buffer, 0, limit);
+                    received = splitBinaryFrames();
+                } else {
+                    int start = 0;
+                    for (int i = 0; i < limit; i++) {
+                        if (buffer.get(i) == '\n') {
+                            inFlight.incrementAndGet();
+                            requests.add(decode(buffer, start, i - start));
+                            received = true;
+                            start = i + 1;
+                        }
+                    }
+                    if (start < limit) {
+                        appendPartial(buffer, start, limit - start);
+                    }
+                }
+                if (received) {
+                    schedule();
+                    if (maxInFlight > 0 && inFlight.get() >= maxInFlight) {
+                        // 先置位再检查计数，与 completed 的先递减再检查标志配对，不会错过恢复
+                        readPaused = true;
+                        updateInterest();
+                    }
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+
+        private byte[] decode(ByteBuffer buffer, int offset, int length) throws IOException {
+            int total = partialLength + length;
+            if (total > MAX_FRAME_BYTES) {
+                throw new IOException("请求帧过长");
+            }
+            byte[] frame = new byte[total];
+            if (partialLength > 0) {
+                System.arraycopy(partial, 0, frame, 0, partialLength);
+                partial = null;
+                partialLength = 0;
+            }
+            buffer.get(offset, frame, total - length, length);
+            if (total > 0 && frame[total - 1] == '\r') {
+                return Arrays.copyOf(frame, total - 1);
+            }
+            return frame;
+        }
+
+        /**
+         * 从累积的字节中切出完整的二进制帧，第一次调用时先处理握手
+         *
+         * @return 切出了至少一帧返回true
+         */
+        private boolean splitBinaryFrames() throws IOException {
+            int offset = 0;
+            if (!handshaken) {
+                if (partialLength < BinaryCodec.HANDSHAKE_BYTES) {
+                    return false;
+                }
+                byte[] reply = BinaryCodec.acceptHandshake(ByteBuffer.wrap(partial, 0, BinaryCodec.HANDSHAKE_BYTES));
+                handshaken = true;
+                if (reply[BinaryCodec.HANDSHAKE_BYTES - 1] == 0) {
+                    // 不支持的协议版本：与线程模式一样回复后关闭连接，之后收到的数据不再处理
+                    partialLength = 0;
+                    closeAfterFlush = true;
+                    send(reply);
+                    return false;
+                }
+                send(reply);
+                offset = BinaryCodec.HANDSHAKE_BYTES;
+            }
+            if (closeAfterFlush) {
+                partialLength = 0;
+                return false;
+            }
+
+            boolean received = false;
+            while (partialLength - offset >= Integer.BYTES) {
+                int length = ByteBuffer.wrap(partial, offset, Integer.BYTES).getInt();
+                if (length <= 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("请求帧长度无效: " + length);
+                }
+                if (partialLength - offset - Integer.BYTES < length) {
+                    break;
+                }
+                offset += Integer.BYTES;
+                inFlight.incrementAndGet();
+                requests.add(Arrays.copyOfRange(partial, offset, offset + length));
+                offset += length;
+                received = true;
+            }
+
+            System.arraycopy(partial, offset, partial, 0, partialLength - offset);
+            partialLength -= offset;
+            return received;
+        }
+
+        private void appendPartial(ByteBuffer buffer, int offset, int length) throws IOException {
+            int total = partialLength + length;
+            // 二进制模式下缓冲区中可能还有一帧的长度前缀和下一次读取的数据
+            int limit = binary ? MAX_FRAME_BYTES + Integer.BYTES + BUFFER_SIZE : MAX_FRAME_BYTES;
+            if (total > limit) {
+                throw new IOException("请求帧过长");
+            }
+            if (partial == null || partial.length < total) {
+                byte[] grown = new byte[Math.max(total, Math.min(limit, partialLength * 2))];
+                if (partialLength > 0) {
+                    System.arraycopy(partial, 0, grown, 0, partialLength);
+                }
+                partial = grown;
+            }
+            buffer.get(offset, partial, partialLength, length);
+            partialLength = total;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        /**
+         * 在工作线程上按顺序处理已收到的请求
+         */
+        private void drain() {
+            byte[] frame;
+            while (!closed && (frame = requests.poll()) != null) {
+                try {
+                    Request request = binary ? BinaryCodec.decode(ByteBuffer.wrap(frame)) : codec.decode(frame);
+                    pipeline.submit(request);
+                } catch (IOException | InterruptedException e) {
+                    logger.log(Level.WARNING, "客户端连接异常", e);
+                    close();
+                }
+            }
+            scheduled.set(false);
+            if (!closed && !requests.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * 一个请求处理结束，请求数回落到上限以下时恢复读取
+         */
+        private void completed() {
+            if (inFlight.decrementAndGet() < maxInFlight && readPaused) {
+                pendingInterest.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private void respond(Request request, Response response) {
+            if (binary) {
+                send(BinaryCodec.encode(response));
+                return;
+            }
+            try {
+                codec.encode(response, writer);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "编码响应时出错", e);
+                close();
+            } finally {
+                codec.release(request);
+            }
+        }
+
+        private void send(byte[] data) {
+            send(data, 0, data.length);
+        }
+
+        private void send(byte[] data, int offset, int length) {
+            if (closed) {
+                return;
+            }
+            writeLock.lock();
+            try {
+                int end = offset + length;
+                while (offset < end) {
+                    ByteBuffer buffer = pool.acquire();
+                    int chunk = Math.min(buffer.remaining(), end - offset);
+                    buffer.put(data, offset, chunk);
+                    buffer.flip();
+                    writeQueue.add(buffer);
+                    offset += chunk;
+                }
+
+                if (!flushLocked()) {
+                    writeArmed = true;
+                    pendingInterest.add(this);
+                    selector.wakeup();
+                } else if (closeAfterFlush) {
+                    close();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "写入响应时出错", e);
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * 尽可能写出排队的数据
+         *
+         * @return 全部写完返回true
+         */
+        private boolean flushLocked() throws IOException {
+            ByteBuffer head;
+            while ((head = writeQueue.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return false;
+                }
+                pool.release(writeQueue.poll());
+            }
+            return true;
+        }
+
+        /**
+         * Selector 线程在连接可写时调用
+         */
+        void flush() throws IOException {
+            writeLock.lock();
+            try {
+                if (flushLocked()) {
+                    if (closeAfterFlush) {
+                        close();
+                        return;
+                    }
+                    writeArmed = false;
+                    updateInterest();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * 在 Selector 线程上按当前状态设置关注的事件
+         */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            if (readPaused && inFlight.get() < maxInFlight) {
+                readPaused = false;
+            }
+            // 客户端没有及时读取响应时也不再读取新请求，响应不会在写队列中无限堆积
+            boolean reading = !readPaused && !writeArmed;
+            try {
+                key.interestOps((reading ? SelectionKey.OP_READ : 0) | (writeArmed ? SelectionKey.OP_WRITE : 0));
+            } catch (CancelledKeyException e) {
+                // 连接已被工作线程关闭
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            handler.disconnected();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "关闭客户端连接时出错", e);
+            }
+            writeLock.lock();
+            try {
+                ByteBuffer buffer;
+                while ((buffer = writeQueue.poll()) != null) {
+                    pool.release(buffer);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.harkerhand.backend.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按键（客户端 IP 或用户名）限流的令牌桶
+ *
+ * 每个键的桶只用一个 AtomicLong 表示：令牌桶等价于记录“理论到达时间”（GCRA），
+ * 每放行一个请求时间后移一个发放间隔，超前当前时间超过突发容量时拒绝。
+ * 放行和拒绝都只是一次读取加至多几次 CAS，不加锁。
+ *
+ * 桶的数量有上限。超过上限时先删除已经回满的桶（空闲的键，删除后重新创建的桶状态相同，不影响限流结果），
+ * 仍然超过时再删除最久未使用的桶。同一时间只有一个线程执行淘汰。
+ */
+final class RateLimiter {
+    private final long intervalNanos;
+    // 理论到达时间最多可以超前当前时间多少，即突发容量减一个间隔
+    private final long toleranceNanos;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param perSecond 每秒发放的令牌数，0 表示不限流
+     * @param burst     桶的容量，即允许的突发请求数
+     * @param maxKeys   最多保留的桶数
+     */
+    RateLimiter(double perSecond, int burst, int maxKeys) {
+        this.intervalNanos = perSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond)) : 0;
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    /**
+     * 为键取一个令牌
+     *
+     * @return 放行返回true，桶已空返回false
+     */
+    boolean tryAcquire(String key) {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            boolean allowed = acquire(bucket, now);
+            // 新桶已经记下这次放行，不会被当作空闲的桶淘汰
+            if (buckets.size() > maxKeys) {
+                evict(now);
+            }
+            return allowed;
+        }
+        return acquire(bucket, now);
+    }
+
+    /**
+     * 退还一个已经取走的令牌，用于同一请求的另一个桶拒绝放行时
+     */
+    void refund(String key) {
+        if (intervalNanos == 0) {
+            return;
+        }
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            // 理论到达时间早于现在也没有关系，取令牌时按现在计算
+            bucket.addAndGet(-intervalNanos);
+        }
+    }
+
+    private boolean acquire(AtomicLong bucket, long now) {
+        while (true) {
+            long arrival = bucket.get();
+            long start = arrival - now > 0 ? arrival : now;
+            if (start - now > toleranceNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(arrival, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    private void evict(long now) {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // 理论到达时间不晚于现在的桶已经回满
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+            int excess = buckets.size() - maxKeys * 3 / 4;
+            if (excess <= 0) {
+                return;
+            }
+            // 理论到达时间越早，最后一次放行就越早；删除最早的那部分，留出余量避免每次新建桶都淘汰
+            long[] arrivals = new long[buckets.size()];
+            int count = 0;
+            for (AtomicLong bucket : buckets.values()) {
+                if (count == arrivals.length) {
+                    break;
+                }
+                arrivals[count++] = bucket.get() - now;
+            }
+            if (count == 0) {
+                return;
+            }
+            Arrays.sort(arrivals, 0, count);
+            long cutoff = arrivals[Math.min(excess, count) - 1];
+            for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+                if (entry.getValue().get() - now <= cutoff) {
+                    buckets.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * @return 被拒绝的请求数
+     */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return 当前保留的桶数
+     */
+    int size() {
+        return buckets.size();
+    }
+}
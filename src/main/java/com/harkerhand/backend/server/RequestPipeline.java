@@ -0,0 +1,153 @@
+package com.harkerhand.backend.server;
+
+import com.harkerhand.backend.protocol.Request;
+import com.harkerhand.backend.protocol.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 单个连接上的请求流水线
+ *
+ * 带 id 字段的请求可以不等响应连续发送：不同账户的请求并发处理，同一账户的请求按到达顺序处理，
+ * 响应中带回相同的 id，可能与请求顺序不同。
+ * 不带 id 的请求保持原有语义：等待之前的所有请求完成后再处理，之后的请求也会等待它完成，
+ * 因此只发送不带 id 请求的客户端看到的行为与以前完全相同。
+ *
+ * 两类请求都计入同时处理中的请求数（包括等待前序请求的），达到上限时 submit 阻塞，读取线程随之停止读取，
+ * 不读响应只管发送的客户端不能让请求无限堆积。nio 模式下工作线程不能阻塞，由调用方通过完成回调自行计数。
+ *
+ * submit 只能由该连接的读取线程（或 nio 模式下该连接的处理任务）调用。
+ */
+class RequestPipeline {
+    private static final Logger logger = Logger.getLogger("RequestPipeline");
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final ClientHandler handler;
+    private final Executor executor;
+    private final BiConsumer<Request, Response> sink;
+    private final Semaphore inFlight;
+    private final Runnable completed;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 每个账户最后一个未完成的请求
+    private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+    // 最后一个不带 id 的请求
+    private CompletableFuture<Void> barrier = DONE;
+
+    /**
+     * @param handler     请求处理器
+     * @param executor    并发处理请求的线程池
+     * @param sink        响应输出，参数为请求和它的响应；可能被多个线程调用，需要保证每条响应原子写出，
+     *                    调用之后不再使用该请求对象
+     * @param maxInFlight 同时处理中的请求上限，0 表示不限制
+     */
+    RequestPipeline(ClientHandler handler, Executor executor, BiConsumer<Request, Response> sink, int maxInFlight) {
+        this(handler, executor, sink, maxInFlight, null);
+    }
+
+    /**
+     * @param completed 每个请求处理结束（响应已交给 sink 或处理失败）后调用，可以为 null
+     */
+    RequestPipeline(ClientHandler handler, Executor executor, BiConsumer<Request, Response> sink, int maxInFlight,
+                    Runnable completed) {
+        this.handler = handler;
+        this.executor = executor;
+        this.sink = sink;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.completed = completed;
+    }
+
+    /**
+     * 提交一个请求
+     *
+     * @throws InterruptedException 等待处理名额时被中断
+     */
+    void submit(Request request) throws InterruptedException {
+        if (inFlight != null) {
+            inFlight.acquire();
+        }
+        if (request.hasId()) {
+            submitKeyed(request.getUsername(), request);
+        } else {
+            submitOrdered(request);
+        }
+    }
+
+    private void submitOrdered(Request request) {
+        CompletableFuture<Void> next;
+        lock.lock();
+        try {
+            if (tails.isEmpty() && barrier.isDone()) {
+                next = null;
+            } else {
+                CompletableFuture<?>[] predecessors = tails.values().toArray(new CompletableFuture<?>[tails.size() + 1]);
+                predecessors[tails.size()] = barrier;
+                next = CompletableFuture.allOf(predecessors)
+                        .handle((ignored, error) -> null)
+                        .thenRunAsync(() -> respond(request), executor);
+                barrier = next;
+                tails.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (next == null) {
+            // 没有处理中的请求，直接在当前线程处理
+            try {
+                respond(request);
+            } finally {
+                finished();
+            }
+        } else {
+            next.whenComplete((ignored, error) -> finished());
+        }
+    }
+
+    private void submitKeyed(String key, Request request) {
+        CompletableFuture<Void> next;
+        lock.lock();
+        try {
+            CompletableFuture<Void> previous = tails.getOrDefault(key, barrier);
+            next = previous.handle((ignored, error) -> null)
+                    .thenRunAsync(() -> respond(request), executor);
+            tails.put(key, next);
+        } finally {
+            lock.unlock();
+        }
+
+        next.whenComplete((ignored, error) -> {
+            lock.lock();
+            try {
+                tails.remove(key, next);
+            } finally {
+                lock.unlock();
+            }
+            finished();
+        });
+    }
+
+    private void finished() {
+        if (inFlight != null) {
+            inFlight.release();
+        }
+        if (completed != null) {
+            completed.run();
+        }
+    }
+
+    private void respond(Request request) {
+        try {
+            sink.accept(request, handler.handle(request));
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "处理请求时出错", e);
+        }
+    }
+}
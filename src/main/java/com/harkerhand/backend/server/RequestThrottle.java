@@ -0,0 +1,122 @@
+package com.harkerhand.backend.server;
+
+import com.harkerhand.backend.config.ServerConfig;
+
+/**
+ * 请求限流
+ *
+ * 登录类请求（注册、登录、修改密码）每次都要计算密码哈希并写活动日志，变更类请求（存款、取款、批量）
+ * 要写用户日志，两类请求分别按客户端 IP 和用户名限流。查询类请求不限流。
+ *
+ * 按 IP 限流在分发请求之前完成。请求中的用户名未经校验，任何客户端都可以填别人的用户名，
+ * 所以按用户名的桶只在身份确认之后扣减：需要会话的请求在会话校验通过后扣减，
+ * 注册和登录还没有会话，按“IP + 用户名”扣减，其他客户端耗不尽某个用户的登录额度。
+ * 按用户名的桶拒绝时退还按 IP 取走的令牌。被拒绝的请求不会计算哈希，也不写日志。
+ */
+public final class RequestThrottle {
+    private final RateLimiter authByAddress;
+    private final RateLimiter authByUser;
+    private final RateLimiter updateByAddress;
+    private final RateLimiter updateByUser;
+
+    private RequestThrottle(RateLimiter authByAddress, RateLimiter authByUser, RateLimiter updateByAddress,
+                            RateLimiter updateByUser) {
+        this.authByAddress = authByAddress;
+        this.authByUser = authByUser;
+        this.updateByAddress = updateByAddress;
+        this.updateByUser = updateByUser;
+    }
+
+    /**
+     * 按系统属性创建，限流关闭时所有请求都放行
+     */
+    static RequestThrottle fromConfig() {
+        boolean enabled = ServerConfig.rateLimitEnabled();
+        int maxKeys = ServerConfig.rateLimitMaxKeys();
+        int authBurst = ServerConfig.rateLimitAuthBurst();
+        int updateBurst = ServerConfig.rateLimitUpdateBurst();
+        return new RequestThrottle(
+                new RateLimiter(enabled ? ServerConfig.rateLimitAuthPerAddress() : 0, authBurst, maxKeys),
+                new RateLimiter(enabled ? ServerConfig.rateLimitAuthPerUser() : 0, authBurst, maxKeys),
+                new RateLimiter(enabled ? ServerConfig.rateLimitUpdatePerAddress() : 0, updateBurst, maxKeys),
+                new RateLimiter(enabled ? ServerConfig.rateLimitUpdatePerUser() : 0, updateBurst, maxKeys));
+    }
+
+    /**
+     * 按客户端 IP 限流，在分发请求之前调用
+     *
+     * @param action  请求的 action
+     * @param address 客户端 IP
+     * @return 放行返回true
+     */
+    boolean admitAddress(String action, String address) {
+        RateLimiter limiter = byAddress(action);
+        return limiter == null || limiter.tryAcquire(address);
+    }
+
+    /**
+     * 按用户限流，在 {@link #admitAddress(String, String)} 放行之后、确认身份之后调用，
+     * 拒绝时退还按 IP 取走的令牌
+     *
+     * @param action   请求的 action
+     * @param address  客户端 IP
+     * @param username 已校验的用户名（注册和登录为请求中的用户名）
+     * @return 放行返回true
+     */
+    boolean admitUser(String action, String address, String username) {
+        RateLimiter limiter;
+        String key = username;
+        switch (action) {
+            case "register":
+            case "login":
+                limiter = authByUser;
+                key = address + ' ' + username;
+                break;
+            case "change_password":
+                limiter = authByUser;
+                break;
+            case "deposit":
+            case "withdraw":
+            case "batch":
+                limiter = updateByUser;
+                break;
+            default:
+                return true;
+        }
+        if (limiter.tryAcquire(key)) {
+            return true;
+        }
+        byAddress(action).refund(address);
+        return false;
+    }
+
+    private RateLimiter byAddress(String action) {
+        switch (action) {
+            case "register":
+            case "login":
+            case "change_password":
+                return authByAddress;
+            case "deposit":
+            case "withdraw":
+            case "batch":
+                return updateByAddress;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return 因限流被拒绝的请求数
+     */
+    public long getRejected() {
+        return authByAddress.getRejected() + authByUser.getRejected() + updateByAddress.getRejected()
+                + updateByUser.getRejected();
+    }
+
+    /**
+     * @return 当前保留的令牌桶数
+     */
+    public int getTrackedKeys() {
+        return authByAddress.size() + authByUser.size() + updateByAddress.size() + updateByUser.size();
+    }
+}
@@ -0,0 +1,169 @@
+package com.harkerhand.backend.server;
+
+import com.harkerhand.backend.log.UserActivityLogger;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 会话表
+ *
+ * 登录成功时为用户创建会话并发放随机的不透明令牌，之后的请求凭令牌（或在登录所用的连接上凭用户名）
+ * 通过一次哈希表查找完成校验。每个用户同时只能有一个会话；会话在注销、所属连接断开或空闲超时后结束。
+ *
+ * 空闲超时由 {@link TimingWheel} 驱动：每个会话只在时间轮中挂一个检查任务，请求只更新最后访问时间，
+ * 检查任务到期时发现会话在此期间被访问过就按剩余时间重新挂上，不需要周期性地扫描所有会话。
+ */
+public final class SessionRegistry {
+    private static final Logger logger = Logger.getLogger("SessionRegistry");
+    private static final int TOKEN_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, Session> byToken = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Session> byUser = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final TimingWheel timer;
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * 一个已登录的会话
+     */
+    public static final class Session {
+        private final String username;
+        private final String token;
+        private final Object owner;
+        private volatile long lastAccessMillis;
+        private volatile boolean closed;
+
+        private Session(String username, String token, Object owner) {
+            this.username = username;
+            this.token = token;
+            this.owner = owner;
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * @return 会话是否属于指定的连接
+         */
+        boolean isOwnedBy(Object connection) {
+            return owner == connection;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * 记录一次访问，推迟空闲超时
+         */
+        void touch() {
+            lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param idleTimeoutMillis 空闲超时（毫秒），0 表示不超时
+     * @param timer             服务器定时器，超时检查的精度为它的刻度
+     */
+    SessionRegistry(long idleTimeoutMillis, TimingWheel timer) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.timer = timer;
+    }
+
+    /**
+     * 为用户创建会话
+     *
+     * @param username 用户名
+     * @param owner    登录所用的连接，连接断开时由它结束自己拥有的会话
+     * @return 新会话，用户已在其他地方登录时返回null
+     */
+    Session open(String username, Object owner) {
+        Session session = new Session(username, newToken(), owner);
+        // 先登记令牌：会话一旦出现在 byUser 中就可能被注销，注销时要能找到它的令牌
+        byToken.put(session.token, session);
+        if (byUser.putIfAbsent(username, session) != null) {
+            byToken.remove(session.token);
+            return null;
+        }
+        if (idleTimeoutMillis > 0) {
+            timer.schedule(() -> checkIdle(session), idleTimeoutMillis);
+        }
+        return session;
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return 令牌对应的会话，不存在或已结束时返回null
+     */
+    Session byToken(String token) {
+        return byToken.get(token);
+    }
+
+    /**
+     * @return 用户当前的会话，未登录时返回null
+     */
+    Session byUser(String username) {
+        return byUser.get(username);
+    }
+
+    /**
+     * 结束会话
+     *
+     * @return 会话在此之前仍然有效返回true
+     */
+    boolean close(Session session) {
+        if (!byUser.remove(session.username, session)) {
+            return false;
+        }
+        session.closed = true;
+        byToken.remove(session.token, session);
+        return true;
+    }
+
+    /**
+     * 时间轮线程上的空闲检查
+     */
+    private void checkIdle(Session session) {
+        if (session.closed) {
+            return;
+        }
+        long idle = System.currentTimeMillis() - session.lastAccessMillis;
+        if (idle < idleTimeoutMillis) {
+            timer.schedule(() -> checkIdle(session), idleTimeoutMillis - idle);
+        } else if (close(session)) {
+            expired.increment();
+            logger.info("会话空闲超时: " + session.username);
+            UserActivityLogger.logUserAction(session.username, "会话超时");
+        }
+    }
+
+    /**
+     * @return 当前有效的会话数
+     */
+    public int getActiveSessions() {
+        return byUser.size();
+    }
+
+    /**
+     * @return 因空闲超时结束的会话数
+     */
+    public long getExpiredSessions() {
+        return expired.sum();
+    }
+}
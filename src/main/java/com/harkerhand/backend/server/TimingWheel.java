@@ -0,0 +1,141 @@
+package com.harkerhand.backend.server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 哈希时间轮
+ *
+ * 时间按固定的刻度划分，定时任务按到期刻度散列到环形的桶中，超过一圈的任务记录剩余圈数。
+ * 一个后台线程每个刻度只处理当前的桶，添加和取消都是 O(1)，不需要周期性地扫描所有任务。
+ * 到期时间精确到刻度，适合会话超时这类允许延后一个刻度的定时。
+ *
+ * 任务在时间轮线程上执行，必须很快完成，不能阻塞。
+ */
+final class TimingWheel {
+    private static final Logger logger = Logger.getLogger("TimingWheel");
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    // 其他线程添加的任务，由时间轮线程在下一个刻度放入桶中
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean stopped;
+    // 已处理完的刻度数，只由时间轮线程修改
+    private long tick;
+
+    /**
+     * 一个定时任务
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * 取消任务，已经开始执行的任务不受影响
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * @param name       时间轮线程的名称
+     * @param tickMillis 刻度长度（毫秒）
+     * @param buckets    桶的数量，向上取整为 2 的幂
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    TimingWheel(String name, long tickMillis, int buckets) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayDeque<>();
+        }
+        this.worker = Thread.ofPlatform().name(name).daemon(true).unstarted(this::run);
+        this.worker.start();
+    }
+
+    /**
+     * 添加定时任务，可以在任意线程调用
+     *
+     * @param task        到期时在时间轮线程上执行的任务
+     * @param delayMillis 延迟（毫秒）
+     * @return 可用于取消的句柄
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task,
+                System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 停止时间轮线程，未到期的任务不再执行
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = (tick + 1) * tickNanos;
+            long now = System.nanoTime() - startNanos;
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                continue;
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // 已经过期的任务放进当前刻度的桶，马上执行
+            long due = Math.max(timeout.deadlineNanos / tickNanos, tick);
+            timeout.remainingRounds = (due - tick) / buckets.length;
+            buckets[(int) (due & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "定时任务执行失败", e);
+                }
+            }
+        }
+    }
+}
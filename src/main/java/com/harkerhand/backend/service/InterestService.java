@@ -1,11 +1,13 @@
 package com.harkerhand.backend.service;
 
 import java.util.logging.Logger;
+import com.harkerhand.backend.config.ServerConfig;
 import com.harkerhand.backend.storage.UserStorage;
 
 /**
  * 利息计算服务类
- * 负责定期为所有用户账户添加利息
+ * 负责定期为所有用户账户添加利息。默认的 lazy 模式下每次执行只推进全局累计指数，
+ * 开销与账户数量无关；eager 模式下立即为每个账户入账，按账户分区并行处理。
  */
 public class InterestService implements Runnable {
     private static final Logger logger = Logger.getLogger("InterestService");
@@ -14,9 +16,16 @@ public class InterestService implements Runnable {
     @Override
     public void run() {
         try {
-            logger.info("开始计算利息...");
-            int updatedAccounts = UserStorage.applyInterestToAllAccounts(INTEREST_RATE);
-            logger.info("完成利息计算，更新了" + updatedAccounts + "个账户");
+            if ("eager".equals(ServerConfig.interestMode())) {
+                logger.info("开始计算利息...");
+                long start = System.nanoTime();
+                int updatedAccounts = UserStorage.applyInterestToAllAccounts(INTEREST_RATE);
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                logger.info("完成利息计算，更新了" + updatedAccounts + "个账户，耗时" + elapsedMillis + "毫秒");
+            } else {
+                long epoch = UserStorage.accrueInterest(INTEREST_RATE);
+                logger.fine("进入第" + epoch + "个计息周期");
+            }
         } catch (Exception e) {
             logger.severe("利息计算过程中发生错误: " + e.getMessage());
             e.printStackTrace();
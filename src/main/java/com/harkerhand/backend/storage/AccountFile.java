@@ -0,0 +1,236 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.utils.Money;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 二进制账户文件（accounts.db）
+ *
+ * 文件由 64 字节的文件头和定长账户记录组成。文件头同时充当索引，描述记录区的位置、
+ * 记录大小和数量，以及快照之后需要回放的日志分段编号：
+ *
+ * <pre>
+ *  0  int   魔数 'ATMA'
+ *  4  short 格式版本
+ *  6  short 文件头长度
+ *  8  int   记录长度
+ * 16  long  记录数量
+ * 24  long  记录区偏移
+ * 32  long  回放起始日志分段
+ * 40  long  写入时间（毫秒）
+ * 48  int   记录区 CRC32
+ * 52  double 利息累计指数（记录中的余额都已计息到这个指数）
+ * 60  int   计息周期数
+ * </pre>
+ *
+ * 每条记录依次为: 用户名长度(1) + 用户名 UTF-8(64) + 盐值(16) + 密码哈希(32) + 余额(8) + 余额版本号(4)
+ * + 密码哈希迭代次数(3，大端无符号，0 表示从 users.dat 迁移来的旧版 SHA-256)。余额是以分为单位的 long。
+ * 读取时通过 MappedByteBuffer 直接映射文件，不经过 Java 序列化。
+ */
+class AccountFile {
+    static final int MAGIC = 0x41544D41;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 128;
+    static final int MAX_USERNAME_BYTES = 64;
+
+    private static final int SALT_BYTES = AccountTable.SALT_BYTES;
+    private static final int HASH_BYTES = AccountTable.HASH_BYTES;
+    private static final int SALT_OFFSET = 1 + MAX_USERNAME_BYTES;
+    private static final int HASH_OFFSET = SALT_OFFSET + SALT_BYTES;
+    private static final int BALANCE_OFFSET = HASH_OFFSET + HASH_BYTES;
+    private static final int VERSION_OFFSET = BALANCE_OFFSET + Long.BYTES;
+    private static final int ITERATIONS_OFFSET = VERSION_OFFSET + Integer.BYTES;
+    private static final int WRITE_BUFFER_RECORDS = 8192;
+    private static final long MAX_MAPPED_REGION = (Integer.MAX_VALUE / RECORD_SIZE) * (long) RECORD_SIZE;
+
+    /**
+     * 读取结果
+     */
+    static final class Snapshot {
+        final long journalSegment;
+        final long recordCount;
+
+        Snapshot(long journalSegment, long recordCount) {
+            this.journalSegment = journalSegment;
+            this.recordCount = recordCount;
+        }
+    }
+
+    /**
+     * 用户名能否存入定长记录
+     */
+    static boolean fits(String username) {
+        return username.getBytes(StandardCharsets.UTF_8).length <= MAX_USERNAME_BYTES;
+    }
+
+    /**
+     * 读取账户文件
+     *
+     * @param path     文件路径
+     * @param accounts 读取目标
+     * @return 文件头信息
+     */
+    static Snapshot read(Path path, AccountTable accounts) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("不是有效的账户文件: " + path);
+            }
+            short version = header.getShort(4);
+            if (version != VERSION) {
+                throw new IOException("不支持的账户文件版本: " + version);
+            }
+            int recordSize = header.getInt(8);
+            long recordCount = header.getLong(16);
+            long recordsOffset = header.getLong(24);
+            long journalSegment = header.getLong(32);
+            int expectedCrc = header.getInt(48);
+            double accrualIndex = header.getDouble(52);
+            accounts.setAccrualIndex(accrualIndex, header.getInt(60));
+            if (recordsOffset + recordCount * recordSize > channel.size()) {
+                throw new IOException("账户文件不完整: " + path);
+            }
+
+            CRC32 crc = new CRC32();
+            byte[] name = new byte[MAX_USERNAME_BYTES];
+            byte[] salt = new byte[SALT_BYTES];
+            byte[] hash = new byte[HASH_BYTES];
+
+            long regionRecords = MAX_MAPPED_REGION / recordSize;
+            for (long first = 0; first < recordCount; first += regionRecords) {
+                long count = Math.min(regionRecords, recordCount - first);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                        recordsOffset + first * recordSize, count * recordSize);
+                crc.update(region.duplicate());
+
+                for (int i = 0; i < count; i++) {
+                    int base = i * recordSize;
+                    int nameLength = region.get(base) & 0xFF;
+                    region.get(base + 1, name, 0, nameLength);
+                    region.get(base + SALT_OFFSET, salt);
+                    region.get(base + HASH_OFFSET, hash);
+                    long balance = region.getLong(base + BALANCE_OFFSET);
+                    int iterations = (region.get(base + ITERATIONS_OFFSET) & 0xFF) << 16
+                            | Short.toUnsignedInt(region.getShort(base + ITERATIONS_OFFSET + 1));
+
+                    String username = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+                    accounts.put(username, salt, hash, iterations, balance, accrualIndex,
+                            region.getInt(base + VERSION_OFFSET));
+                }
+            }
+
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("账户文件校验失败: " + path);
+            }
+            return new Snapshot(journalSegment, recordCount);
+        }
+    }
+
+    /**
+     * 写入账户文件：先写临时文件并落盘，再原子替换目标文件
+     *
+     * @param path           目标路径
+     * @param accounts       要写入的账户
+     * @param journalSegment 快照之后需要回放的日志分段
+     * @return 写入的账户数
+     */
+    static long write(Path path, AccountTable accounts, long journalSegment) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * RECORD_SIZE);
+            byte[] salt = new byte[SALT_BYTES];
+            byte[] hash = new byte[HASH_BYTES];
+            channel.position(HEADER_SIZE);
+
+            // 槽位只增不减；之后注册的账户都记录在新的日志分段中，重启时会回放
+            int size = accounts.size();
+            // 余额计息到同一个指数后写入，加载时所有账户共用文件头中的指数
+            double accrualIndex = accounts.accrualIndex();
+            long accrualEpoch = accounts.accrualEpoch();
+            for (int slot = 0; slot < size; slot++) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer, crc);
+                }
+                String username = accounts.username(slot);
+                byte[] name = username.getBytes(StandardCharsets.UTF_8);
+                if (name.length > MAX_USERNAME_BYTES) {
+                    throw new IOException("账户无法写入定长记录: " + username);
+                }
+                long balance;
+                int version;
+                int iterations;
+                // 余额、计息指数和版本号必须成对读取，每条记录只短暂持有该账户的锁
+                ReentrantLock lock = AccountLocks.forUser(username);
+                lock.lock();
+                try {
+                    iterations = accounts.credentials(slot, salt, hash);
+                    balance = Money.accrue(accounts.balance(slot), accrualIndex - accounts.accrual(slot));
+                    version = accounts.version(slot);
+                } finally {
+                    lock.unlock();
+                }
+
+                int base = buffer.position();
+                buffer.put((byte) name.length);
+                buffer.put(name);
+                buffer.position(base + SALT_OFFSET);
+                buffer.put(salt);
+                buffer.put(hash);
+                buffer.putLong(balance);
+                buffer.putInt(version);
+                buffer.put((byte) (iterations >>> 16));
+                buffer.putShort((short) iterations);
+                while (buffer.position() < base + RECORD_SIZE) {
+                    buffer.put((byte) 0);
+                }
+                count++;
+            }
+            flush(channel, buffer, crc);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) HEADER_SIZE);
+            header.putInt(RECORD_SIZE);
+            header.putInt(0);
+            header.putLong(count);
+            header.putLong(HEADER_SIZE);
+            header.putLong(journalSegment);
+            header.putLong(System.currentTimeMillis());
+            header.putInt((int) crc.getValue());
+            header.putDouble(accrualIndex);
+            header.putInt((int) accrualEpoch);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,25 @@
+package com.harkerhand.backend.storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按用户名分段的账户锁
+ * 同一账户的内存修改和日志提交在同一把锁内完成。使用 ReentrantLock 而不是 synchronized，
+ * 虚拟线程在等待锁时不会占住载体线程。
+ */
+class AccountLocks {
+    private static final int STRIPES = 1024;
+    private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    static ReentrantLock forUser(String username) {
+        int h = username.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (STRIPES - 1)];
+    }
+}
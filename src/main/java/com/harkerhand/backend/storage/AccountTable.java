@@ -0,0 +1,227 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.utils.Money;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 账户表
+ *
+ * 账户按槽位编号存放在分页的基本类型数组中（结构体数组），每页 {@link #PAGE_SIZE} 个账户:
+ * 余额（分）在 long[] 中，余额已计息到的累计指数在 double[] 中，余额版本号在 int[] 中，
+ * 盐值和密码哈希紧挨着存放在 byte[] 中，密码哈希的迭代次数在 int[] 中，用户名单独一个数组。
+ * 用户名到槽位的映射由 ConcurrentHashMap 维护。利息和检查点这样的批量遍历按槽位顺序
+ * 扫描连续的 long[]，不需要逐个访问分散在堆上的账户对象。
+ *
+ * 槽位分配后不会回收。修改同一账户的字段需要持有 {@link AccountLocks} 中对应的锁；
+ * 余额以 release/acquire 语义读写，不加锁的读取也能看到某次完整写入的值。
+ * 每次余额变更都会递增该账户的版本号，日志回放时只应用版本号更大的余额记录，
+ * 因此同一账户的余额记录在日志中的先后顺序不影响回放结果。
+ *
+ * 利息按全局累计指数惰性计算: 指数是各计息周期 ln(1 + 利率) 之和，每个账户记录余额计息到的指数值，
+ * 读取或修改时按两者之差补计利息（见 {@link #accrue(int)}）。
+ */
+class AccountTable {
+    static final int SALT_BYTES = 16;
+    static final int HASH_BYTES = 32;
+    static final int NO_SLOT = -1;
+
+    private static final int CREDENTIAL_BYTES = SALT_BYTES + HASH_BYTES;
+    private static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final VarHandle BALANCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    // 只保护槽位分配和扩容，已分配槽位的读写不经过这把锁
+    private final ReentrantLock allocationLock = new ReentrantLock();
+    private volatile Page[] pages = new Page[0];
+    private volatile int size;
+    // 全局累计指数和计息周期数，只在 UserStorage 的利息锁内或加载数据时修改
+    private volatile double accrualIndex;
+    private volatile long accrualEpoch;
+
+    private static final class Page {
+        final String[] usernames = new String[PAGE_SIZE];
+        final long[] balances = new long[PAGE_SIZE];
+        final double[] accruals = new double[PAGE_SIZE];
+        final int[] versions = new int[PAGE_SIZE];
+        final byte[] credentials = new byte[PAGE_SIZE * CREDENTIAL_BYTES];
+        final int[] iterations = new int[PAGE_SIZE];
+    }
+
+    /**
+     * @return 已分配的槽位数，槽位编号为 0 到 size - 1
+     */
+    int size() {
+        return size;
+    }
+
+    double accrualIndex() {
+        return accrualIndex;
+    }
+
+    /**
+     * @return 已经过的计息周期数
+     */
+    long accrualEpoch() {
+        return accrualEpoch;
+    }
+
+    /**
+     * 设置全局累计指数，之后读取或修改的余额都会计息到这个指数
+     */
+    void setAccrualIndex(double index, long epoch) {
+        accrualEpoch = epoch;
+        accrualIndex = index;
+    }
+
+    /**
+     * @return 用户名对应的槽位，不存在时返回 {@link #NO_SLOT}
+     */
+    int slot(String username) {
+        Integer slot = slots.get(username);
+        return slot == null ? NO_SLOT : slot;
+    }
+
+    /**
+     * 分配新槽位，调用方需持有该账户的锁
+     *
+     * @return 新槽位，用户名已存在时返回 {@link #NO_SLOT}
+     */
+    int insert(String username, byte[] salt, byte[] hash, int iterations, long balance, double accrual,
+            int version) {
+        allocationLock.lock();
+        try {
+            if (slots.containsKey(username)) {
+                return NO_SLOT;
+            }
+            int slot = size;
+            if (slot >>> PAGE_SHIFT == pages.length) {
+                Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+                grown[pages.length] = new Page();
+                pages = grown;
+            }
+            pages[slot >>> PAGE_SHIFT].usernames[slot & PAGE_MASK] = username;
+            setCredentials(slot, salt, hash, iterations);
+            setBalance(slot, balance, accrual);
+            setVersion(slot, version);
+            // 字段写完后再发布槽位，按用户名查找或按槽位扫描都不会看到未初始化的账户
+            size = slot + 1;
+            slots.put(username, slot);
+            return slot;
+        } finally {
+            allocationLock.unlock();
+        }
+    }
+
+    /**
+     * 写入账户的完整状态，不存在时分配新槽位（用于加载快照和回放日志）
+     */
+    void put(String username, byte[] salt, byte[] hash, int iterations, long balance, double accrual, int version) {
+        int slot = slot(username);
+        if (slot == NO_SLOT) {
+            insert(username, salt, hash, iterations, balance, accrual, version);
+        } else {
+            setCredentials(slot, salt, hash, iterations);
+            setBalance(slot, balance, accrual);
+            setVersion(slot, version);
+        }
+    }
+
+    String username(int slot) {
+        return pages[slot >>> PAGE_SHIFT].usernames[slot & PAGE_MASK];
+    }
+
+    long balance(int slot) {
+        return (long) BALANCES.getAcquire(pages[slot >>> PAGE_SHIFT].balances, slot & PAGE_MASK);
+    }
+
+    /**
+     * @return 余额已计息到的累计指数
+     */
+    double accrual(int slot) {
+        return pages[slot >>> PAGE_SHIFT].accruals[slot & PAGE_MASK];
+    }
+
+    /**
+     * 设置余额及其计息到的累计指数，不改变版本号（用于补计利息和加载数据）
+     */
+    void setBalance(int slot, long balance, double accrual) {
+        Page page = pages[slot >>> PAGE_SHIFT];
+        page.accruals[slot & PAGE_MASK] = accrual;
+        BALANCES.setRelease(page.balances, slot & PAGE_MASK, balance);
+    }
+
+    /**
+     * 变更余额并递增版本号，调用方需持有该账户的锁
+     *
+     * @return 新的版本号，写入余额记录
+     */
+    int changeBalance(int slot, long balance, double accrual) {
+        setBalance(slot, balance, accrual);
+        int version = version(slot) + 1;
+        setVersion(slot, version);
+        return version;
+    }
+
+    int version(int slot) {
+        return pages[slot >>> PAGE_SHIFT].versions[slot & PAGE_MASK];
+    }
+
+    void setVersion(int slot, int version) {
+        pages[slot >>> PAGE_SHIFT].versions[slot & PAGE_MASK] = version;
+    }
+
+    /**
+     * 把余额计息到当前的全局累计指数，调用方需持有该账户的锁。
+     * 只修改内存：结果完全由余额和两个指数决定，重启后按同样的数据会算出同样的结果。
+     *
+     * @return 计息后的余额
+     */
+    long accrue(int slot) {
+        long balance = balance(slot);
+        double index = accrualIndex;
+        double accrual = accrual(slot);
+        if (accrual >= index) {
+            return balance;
+        }
+        long accrued = Money.accrue(balance, index - accrual);
+        setBalance(slot, accrued, index);
+        return accrued;
+    }
+
+    /**
+     * 把盐值和密码哈希复制到调用方提供的数组
+     *
+     * @return 密码哈希的迭代次数，0 表示旧版 SHA-256
+     */
+    int credentials(int slot, byte[] salt, byte[] hash) {
+        Page page = pages[slot >>> PAGE_SHIFT];
+        int offset = (slot & PAGE_MASK) * CREDENTIAL_BYTES;
+        System.arraycopy(page.credentials, offset, salt, 0, SALT_BYTES);
+        System.arraycopy(page.credentials, offset + SALT_BYTES, hash, 0, HASH_BYTES);
+        return page.iterations[slot & PAGE_MASK];
+    }
+
+    void setCredentials(int slot, byte[] salt, byte[] hash, int iterations) {
+        Page page = pages[slot >>> PAGE_SHIFT];
+        int offset = (slot & PAGE_MASK) * CREDENTIAL_BYTES;
+        System.arraycopy(salt, 0, page.credentials, offset, SALT_BYTES);
+        System.arraycopy(hash, 0, page.credentials, offset + SALT_BYTES, HASH_BYTES);
+        page.iterations[slot & PAGE_MASK] = iterations;
+    }
+
+    /**
+     * 比较账户当前的盐值，用于确认在不持锁计算哈希期间密码没有被修改
+     */
+    boolean saltEquals(int slot, byte[] salt) {
+        byte[] credentials = pages[slot >>> PAGE_SHIFT].credentials;
+        int offset = (slot & PAGE_MASK) * CREDENTIAL_BYTES;
+        return Arrays.equals(credentials, offset, offset + SALT_BYTES, salt, 0, SALT_BYTES);
+    }
+}
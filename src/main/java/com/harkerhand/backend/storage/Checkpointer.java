@@ -0,0 +1,70 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.config.ServerConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 后台检查点服务
+ * 定期写入所有账户的快照并回收已被快照覆盖的日志分段，
+ * 使重启时间和磁盘占用不随日志无限增长
+ */
+public class Checkpointer implements Runnable {
+    private static final Logger logger = Logger.getLogger("Checkpointer");
+
+    private static final AtomicLong checkpointCount = new AtomicLong();
+    private static final AtomicLong totalBytesReclaimed = new AtomicLong();
+    private static volatile long lastDurationMillis;
+    private static volatile long lastBytesReclaimed;
+
+    @Override
+    public void run() {
+        try {
+            long journalBytes = UserStorage.journalSizeSinceCheckpoint();
+            if (journalBytes < ServerConfig.checkpointMinJournalBytes()) {
+                return;
+            }
+            logger.info("开始检查点，当前日志分段大小: " + journalBytes + " 字节");
+            UserStorage.saveUsers();
+        } catch (Exception e) {
+            logger.severe("检查点过程中发生错误: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    static void record(long durationMillis, long bytesReclaimed) {
+        lastDurationMillis = durationMillis;
+        lastBytesReclaimed = bytesReclaimed;
+        checkpointCount.incrementAndGet();
+        totalBytesReclaimed.addAndGet(bytesReclaimed);
+    }
+
+    /**
+     * @return 已完成的检查点次数
+     */
+    public static long getCheckpointCount() {
+        return checkpointCount.get();
+    }
+
+    /**
+     * @return 最近一次检查点的耗时（毫秒）
+     */
+    public static long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    /**
+     * @return 最近一次检查点回收的日志字节数
+     */
+    public static long getLastBytesReclaimed() {
+        return lastBytesReclaimed;
+    }
+
+    /**
+     * @return 累计回收的日志字节数
+     */
+    public static long getTotalBytesReclaimed() {
+        return totalBytesReclaimed.get();
+    }
+}
@@ -0,0 +1,68 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.config.ServerConfig;
+
+/**
+ * 用户日志刷盘策略
+ */
+class FsyncPolicy {
+    enum Mode {
+        /** 每个写入批次都调用 force，调用方在数据落盘后才返回 */
+        REQUEST,
+        /** 距上次 force 超过指定毫秒数时刷盘 */
+        INTERVAL,
+        /** 未刷盘记录达到指定条数时刷盘，最长等待 intervalMillis */
+        RECORDS,
+        /** 只写入操作系统缓存，不调用 force */
+        NONE
+    }
+
+    final Mode mode;
+    final long intervalNanos;
+    final int records;
+
+    FsyncPolicy(Mode mode, long intervalMillis, int records) {
+        this.mode = mode;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.records = Math.max(1, records);
+    }
+
+    static FsyncPolicy fromConfig() {
+        Mode mode = Mode.valueOf(ServerConfig.journalFsyncPolicy().toUpperCase());
+        return new FsyncPolicy(mode, ServerConfig.journalFsyncIntervalMillis(), ServerConfig.journalFsyncRecords());
+    }
+
+    /**
+     * 判断当前是否应该刷盘
+     *
+     * @param unsynced       自上次刷盘以来写入的记录数
+     * @param nanosSinceSync 距上次刷盘（或第一条未刷盘记录写入）的纳秒数
+     */
+    boolean shouldSync(int unsynced, long nanosSinceSync) {
+        if (unsynced == 0) {
+            return false;
+        }
+        switch (mode) {
+            case REQUEST:
+                return true;
+            case INTERVAL:
+                return nanosSinceSync >= intervalNanos;
+            case RECORDS:
+                return unsynced >= records || nanosSinceSync >= intervalNanos;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case INTERVAL:
+                return "interval(" + intervalNanos / 1_000_000L + "ms)";
+            case RECORDS:
+                return "records(" + records + ")";
+            default:
+                return mode.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.config.ServerConfig;
+import com.harkerhand.backend.utils.Money;
+
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 并行利息入账（eager 模式）
+ *
+ * 账户表按槽位划分为连续的分区，在 ForkJoinPool 上并行处理。每个分区逐个账户在账户锁内计息，
+ * 整个分区的余额记录作为一批提交给日志，释放锁之后再写本分区的活动日志。
+ * 余额记录带有版本号，分区批次与其他线程对同一账户的记录在日志中的先后顺序不影响回放结果。
+ *
+ * {@link #post(double, int)} 在所有分区的记录落盘后才返回，调用方以此作为屏障发布新的计息周期。
+ * 调用方需保证同一时间只有一次入账（UserStorage 的利息锁）。
+ */
+class InterestEngine {
+    private final AccountTable accounts;
+    private final UserJournal journal;
+    private ForkJoinPool pool;
+
+    InterestEngine(AccountTable accounts, UserJournal journal) {
+        this.accounts = accounts;
+        this.journal = journal;
+    }
+
+    /**
+     * 为所有余额为正的账户入账一期利息
+     *
+     * @param rate        利息率
+     * @param parallelism 并行线程数
+     * @return 入账的账户数
+     */
+    int post(double rate, int parallelism) {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(parallelism, InterestEngine::newWorker, null, false);
+        }
+
+        Queue<CompletableFuture<Void>> batches = new ConcurrentLinkedQueue<>();
+        int partitionSlots = Math.max(1, ServerConfig.interestPartitionSlots());
+        int count = pool.invoke(new Partition(0, accounts.size(), partitionSlots, rate, batches));
+        for (CompletableFuture<Void> batch : batches) {
+            UserJournal.await(batch);
+        }
+        return count;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("interest-worker-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    /**
+     * 一个槽位区间，超过分区大小时对半拆分
+     */
+    private final class Partition extends RecursiveTask<Integer> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int partitionSlots;
+        private final double rate;
+        private final transient Queue<CompletableFuture<Void>> batches;
+
+        Partition(int from, int to, int partitionSlots, double rate, Queue<CompletableFuture<Void>> batches) {
+            this.from = from;
+            this.to = to;
+            this.partitionSlots = partitionSlots;
+            this.rate = rate;
+            this.batches = batches;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= partitionSlots) {
+                return postPartition(from, to, rate, batches);
+            }
+            // 拆分点对齐到分区大小，每个分区扫描连续的槽位
+            int middle = from + Math.max(1, (to - from) / partitionSlots / 2) * partitionSlots;
+            Partition left = new Partition(from, middle, partitionSlots, rate, batches);
+            Partition right = new Partition(middle, to, partitionSlots, rate, batches);
+            left.fork();
+            int posted = right.compute();
+            return posted + left.join();
+        }
+    }
+
+    private int postPartition(int from, int to, double rate, Queue<CompletableFuture<Void>> batches) {
+        List<ByteBuffer> records = new ArrayList<>();
+        String[] usernames = new String[to - from];
+        long[] interests = new long[to - from];
+        int logged = 0;
+
+        for (int slot = from; slot < to; slot++) {
+            if (accounts.balance(slot) <= 0) {
+                continue;
+            }
+            String username = accounts.username(slot);
+            long before;
+            long after;
+            ReentrantLock lock = AccountLocks.forUser(username);
+            lock.lock();
+            try {
+                before = accounts.balance(slot);
+                after = accounts.accrue(slot);
+                long interest = Math.min(Money.interest(after, rate), Money.MAX_BALANCE - after);
+                if (interest > 0) {
+                    after += interest;
+                    double accrual = accounts.accrual(slot);
+                    int version = accounts.changeBalance(slot, after, accrual);
+                    records.add(UserJournal.encodeBalance(username, after, accrual, version));
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (after != before) {
+                usernames[logged] = username;
+                interests[logged++] = after - before;
+            }
+        }
+
+        if (!records.isEmpty()) {
+            batches.add(journal.append(records.toArray(new ByteBuffer[0])));
+        }
+        for (int i = 0; i < logged; i++) {
+            UserStorage.logInterest(usernames[i], interests[i]);
+        }
+        return records.size();
+    }
+}
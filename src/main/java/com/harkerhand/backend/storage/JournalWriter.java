@@ -0,0 +1,268 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 用户日志的组提交写入线程
+ * 收集多个处理线程提交的记录，合并为一次写入，并按刷盘策略调用一次 FileChannel.force，
+ * 数据落盘后再完成每个调用方的 Future。
+ *
+ * 写入或刷盘失败后不再尝试：内存中已经包含没能落盘的变更，无法安全地回滚（之后的变更可能建立在它之上），
+ * 所以之后提交的记录和控制操作（包括检查点的分段切换）全部立即失败，内存状态不会再被写入磁盘。
+ * 重启后从磁盘恢复到最后一次成功写入的状态。
+ */
+class JournalWriter implements Runnable {
+    private static final Logger logger = Logger.getLogger("JournalWriter");
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 在写入线程上按顺序执行的控制操作（如截断、切换日志文件）
+     */
+    interface Control {
+        void run(JournalWriter writer) throws IOException;
+    }
+
+    private static final class Pending {
+        final ByteBuffer[] records;
+        final Control control;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(ByteBuffer[] records, Control control) {
+            this.records = records;
+            this.control = control;
+        }
+    }
+
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final List<Pending> unsynced = new ArrayList<>();
+    private final FsyncPolicy policy;
+    private final Thread thread;
+    private FileChannel channel;
+    private long firstUnsyncedNanos;
+    private int unsyncedRecords;
+    private volatile boolean running = true;
+    // 第一次写入或刷盘失败的原因
+    private volatile IOException failure;
+
+    JournalWriter(FileChannel channel, FsyncPolicy policy) {
+        this.channel = channel;
+        this.policy = policy;
+        this.thread = new Thread(this, "journal-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        ServerMetrics.registerGauge("journal.queue", queue::size);
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    void setChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 提交一批记录
+     *
+     * @return 记录按策略持久化后完成的 Future
+     */
+    CompletableFuture<Void> submit(ByteBuffer... records) {
+        return enqueue(new Pending(records, null));
+    }
+
+    /**
+     * 提交一个控制操作，它会在之前提交的记录全部落盘后执行
+     */
+    CompletableFuture<Void> execute(Control control) {
+        return enqueue(new Pending(null, control));
+    }
+
+    /**
+     * @return 是否发生过写入或刷盘失败
+     */
+    boolean failed() {
+        return failure != null;
+    }
+
+    private CompletableFuture<Void> enqueue(Pending pending) {
+        if (failure != null) {
+            pending.done.completeExceptionally(failedError());
+            return pending.done;
+        }
+        if (!running) {
+            pending.done.completeExceptionally(new IOException("用户日志已关闭"));
+            return pending.done;
+        }
+        queue.add(pending);
+        return pending.done;
+    }
+
+    /**
+     * 停止写入线程，剩余的记录会先写完并刷盘
+     */
+    void close() {
+        running = false;
+        // 用一个空操作唤醒写入线程；不能中断线程，否则会关闭正在使用的 FileChannel
+        queue.add(new Pending(null, writer -> {
+        }));
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    if (failure != null) {
+                        // 失败之前已经排队的记录
+                        fail(batch, failure);
+                    } else {
+                        process(batch);
+                    }
+                    batch.clear();
+                }
+                if (policy.shouldSync(unsyncedRecords, System.nanoTime() - firstUnsyncedNanos)) {
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                failure = e;
+                logger.log(Level.SEVERE, "写入用户日志时出错，停止接受变更，需要重启服务器恢复", e);
+                fail(batch, e);
+                batch.clear();
+            }
+        }
+
+        if (failure != null) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "关闭用户日志时刷盘失败", e);
+            fail(batch, e);
+        }
+    }
+
+    private UncheckedIOException failedError() {
+        return new UncheckedIOException("用户日志写入失败，已停止接受变更", failure);
+    }
+
+    private long pollTimeoutNanos() {
+        if (unsyncedRecords == 0 || policy.mode == FsyncPolicy.Mode.NONE) {
+            return IDLE_POLL_NANOS;
+        }
+        if (policy.mode == FsyncPolicy.Mode.REQUEST) {
+            return 0;
+        }
+        return Math.max(0, policy.intervalNanos - (System.nanoTime() - firstUnsyncedNanos));
+    }
+
+    private void process(List<Pending> batch) throws IOException {
+        int start = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (pending.control != null) {
+                write(batch, start, i);
+                sync();
+                try {
+                    pending.control.run(this);
+                    pending.done.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    pending.done.completeExceptionally(e);
+                }
+                start = i + 1;
+            }
+        }
+        write(batch, start, batch.size());
+    }
+
+    private void write(List<Pending> batch, int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            count += batch.get(i).records.length;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        long remaining = 0;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            for (ByteBuffer record : batch.get(i).records) {
+                buffers[n++] = record;
+                remaining += record.remaining();
+            }
+        }
+        long start = System.nanoTime();
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        ServerMetrics.recordJournalWrite(System.nanoTime() - start);
+
+        if (unsyncedRecords == 0) {
+            firstUnsyncedNanos = System.nanoTime();
+        }
+        unsyncedRecords += count;
+        for (int i = from; i < to; i++) {
+            Pending pending = batch.get(i);
+            if (policy.mode == FsyncPolicy.Mode.NONE) {
+                pending.done.complete(null);
+            } else {
+                unsynced.add(pending);
+            }
+        }
+        if (policy.mode == FsyncPolicy.Mode.NONE) {
+            unsyncedRecords = 0;
+        }
+    }
+
+    private void sync() throws IOException {
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        channel.force(false);
+        ServerMetrics.recordJournalSync(System.nanoTime() - start);
+        for (Pending pending : unsynced) {
+            pending.done.complete(null);
+        }
+        unsynced.clear();
+        unsyncedRecords = 0;
+    }
+
+    private void fail(List<Pending> batch, IOException e) {
+        UncheckedIOException error = new UncheckedIOException("写入用户日志时出错", e);
+        for (Pending pending : unsynced) {
+            pending.done.completeExceptionally(error);
+        }
+        unsynced.clear();
+        unsyncedRecords = 0;
+        for (Pending pending : batch) {
+            pending.done.completeExceptionally(error);
+        }
+    }
+}
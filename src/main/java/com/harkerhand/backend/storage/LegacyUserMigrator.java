@@ -0,0 +1,70 @@
+package com.harkerhand.backend.storage;
+
+import com.harkerhand.backend.model.User;
+import com.harkerhand.backend.utils.Money;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 旧版用户文件迁移工具
+ * 把 Java 序列化的 users.dat 一次性转换为二进制 accounts.db，
+ * 原文件重命名为 users.dat.legacy 保留备份。旧文件中 double 类型的余额按 HALF_UP 转换为分。
+ *
+ * 服务器启动时如果发现只有旧文件会自动迁移，也可以单独运行:
+ * java -cp atm.jar com.harkerhand.backend.storage.LegacyUserMigrator [users.dat] [accounts.db]
+ */
+public class LegacyUserMigrator {
+    private static final Logger logger = Logger.getLogger("LegacyUserMigrator");
+    static final String LEGACY_USER_FILE = "users.dat";
+
+    public static void main(String[] args) throws Exception {
+        Path legacy = Paths.get(args.length > 0 ? args[0] : LEGACY_USER_FILE);
+        Path target = Paths.get(args.length > 1 ? args[1] : UserStorage.ACCOUNT_FILE);
+        if (Files.exists(target)) {
+            System.err.println("目标文件已存在: " + target);
+            System.exit(1);
+        }
+        long count = migrate(legacy, target);
+        System.out.println("已迁移 " + count + " 个用户到 " + target);
+    }
+
+    /**
+     * 执行迁移
+     *
+     * @param legacy 旧版 users.dat
+     * @param target 新的 accounts.db
+     * @return 迁移的用户数
+     */
+    static long migrate(Path legacy, Path target) throws IOException {
+        Map<String, User> users;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacy)))) {
+            @SuppressWarnings("unchecked")
+            Map<String, User> loaded = (Map<String, User>) ois.readObject();
+            users = loaded;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("无法读取旧版用户文件: " + legacy, e);
+        }
+
+        AccountTable accounts = new AccountTable();
+        Base64.Decoder base64 = Base64.getDecoder();
+        for (User user : users.values()) {
+            accounts.put(user.getUsername(), base64.decode(user.getSalt()), base64.decode(user.getPasswordHash()), 0,
+                    Money.fromDouble(user.getBalance()), 0, 0);
+        }
+        // 旧版没有日志，迁移后从第一个分段开始记录
+        long count = AccountFile.write(target, accounts, 0);
+        Files.move(legacy, legacy.resolveSibling(legacy.getFileName() + ".legacy"),
+                StandardCopyOption.REPLACE_EXISTING);
+        logger.info("已将 " + count + " 个用户从 " + legacy + " 迁移到 " + target);
+        return count;
+    }
+}
@@ -0,0 +1,439 @@
+package com.harkerhand.backend.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 用户数据预写日志
+ * 以追加方式记录单个账户的变更（注册、余额变更、密码变更），
+ * 使每笔交易只需一次小的顺序写入，而不必重写整个用户文件。
+ *
+ * 记录格式: [int 负载长度][int CRC32][负载]，负载以记录类型字节开头。
+ * 所有记录都保存变更后的绝对值，因此重复回放是幂等的。
+ * 余额以分为单位的 long 记录，并带有余额计息到的累计指数和账户的余额版本号；
+ * 回放时只应用版本号更大的余额记录。计息周期本身也是一条记录，因此每个周期只需一次写入。
+ * 注册和密码记录带有密码哈希的迭代次数（0 表示从 users.dat 迁移来的旧版 SHA-256 哈希）。
+ *
+ * 日志按编号分段存放（journal/users-000001.log ...），检查点切换到新分段后，
+ * 旧分段即可在快照写入完成后删除。
+ */
+class UserJournal {
+    static final byte RECORD_INTEREST = 1;
+    static final byte RECORD_BALANCE = 2;
+    static final byte RECORD_ACCOUNT = 3;
+    static final byte RECORD_PASSWORD = 4;
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    // 保护提交顺序和写入线程的生命周期，提交记录时持有期间不做阻塞 I/O；
+    // 使用 ReentrantLock 而不是 synchronized，虚拟线程等待时不会占住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile JournalWriter writer;
+    private long currentSegment;
+
+    UserJournal(Path directory, FsyncPolicy policy) {
+        this.directory = directory;
+        this.policy = policy;
+    }
+
+    Path segmentPath(long segment) {
+        return directory.resolve(String.format("users-%06d.log", segment));
+    }
+
+    /**
+     * 列出现有的分段编号（升序）
+     */
+    List<Long> segments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "users-*.log")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(6, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // 忽略无关文件
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * 回放指定分段及之后的所有分段
+     *
+     * @param accounts    回放目标
+     * @param fromSegment 检查点记录的起始分段
+     * @return 回放的记录数
+     */
+    int replay(AccountTable accounts, long fromSegment) throws IOException {
+        int count = 0;
+        for (long segment : segments()) {
+            if (segment >= fromSegment) {
+                count += replaySegment(segmentPath(segment), accounts);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 回放一个分段中的所有完整记录，并截断末尾不完整的记录
+     */
+    private int replaySegment(Path path, AccountTable accounts) throws IOException {
+        int count = 0;
+        long validLength = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            while (true) {
+                header.clear();
+                if (readFully(in, header) < HEADER_SIZE) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || validLength + HEADER_SIZE + length > in.size()) {
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(in, payload);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                apply(payload.array(), accounts);
+                validLength += HEADER_SIZE + length;
+                count++;
+            }
+
+            // 进程崩溃可能留下写了一半的记录，截断后再继续追加
+            if (validLength < in.size()) {
+                in.truncate(validLength);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 打开最新的分段并启动组提交写入线程
+     *
+     * @param minSegment 至少使用的分段编号（检查点记录的起始分段）
+     */
+    void open(long minSegment) throws IOException {
+        lock.lock();
+        try {
+            if (writer == null) {
+                Files.createDirectories(directory);
+                List<Long> segments = segments();
+                long latest = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+                currentSegment = Math.max(Math.max(1, minSegment), latest);
+                writer = new JournalWriter(openSegment(currentSegment), policy);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 关闭日志，已提交的记录会先写完并刷盘
+     */
+    void close() throws IOException {
+        lock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer.channel().close();
+                writer = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long currentSegment() {
+        lock.lock();
+        try {
+            return currentSegment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前分段已写入的字节数
+     */
+    long currentSegmentSize() throws IOException {
+        lock.lock();
+        try {
+            Path path = segmentPath(currentSegment);
+            return Files.exists(path) ? Files.size(path) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 切换到新的分段。此前提交的记录都写入旧分段并落盘，之后提交的记录写入新分段。
+     *
+     * @return 新分段编号
+     */
+    long rotate() throws IOException {
+        CompletableFuture<Void> switched;
+        long next;
+        lock.lock();
+        try {
+            open(0);
+            next = currentSegment + 1;
+            currentSegment = next;
+            switched = writer.execute(w -> {
+                FileChannel previous = w.channel();
+                w.setChannel(openSegment(next));
+                previous.close();
+            });
+        } finally {
+            lock.unlock();
+        }
+        await(switched);
+        return next;
+    }
+
+    /**
+     * 删除编号小于指定值的分段
+     *
+     * @return 回收的字节数
+     */
+    long deleteSegmentsBefore(long segment) throws IOException {
+        long reclaimed = 0;
+        for (long existing : segments()) {
+            if (existing < segment) {
+                Path path = segmentPath(existing);
+                reclaimed += Files.size(path);
+                Files.delete(path);
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * @return 是否发生过写入或刷盘失败，失败后不再接受任何记录
+     */
+    boolean failed() {
+        JournalWriter current = writer;
+        return current != null && current.failed();
+    }
+
+    CompletableFuture<Void> appendAccount(String username, byte[] salt, byte[] hash, int iterations, long balance) {
+        return append(encodeAccount(username, salt, hash, iterations, balance));
+    }
+
+    CompletableFuture<Void> appendBalance(String username, long balance, double accrual, int version) {
+        return append(encodeBalance(username, balance, accrual, version));
+    }
+
+    CompletableFuture<Void> appendPassword(String username, byte[] salt, byte[] hash, int iterations) {
+        return append(encodePassword(username, salt, hash, iterations));
+    }
+
+    CompletableFuture<Void> appendInterest(long epoch, double index) {
+        return append(encodeInterest(epoch, index));
+    }
+
+    /**
+     * 提交一批记录给写入线程。
+     * 调用方应在持有账户锁时提交，以保证同一账户的记录顺序与内存中的变更顺序一致，
+     * 然后在释放锁之后调用 {@link #await(CompletableFuture)} 等待持久化。
+     *
+     * @param records 已编码的记录
+     * @return 记录按刷盘策略持久化后完成的 Future
+     */
+    CompletableFuture<Void> append(ByteBuffer... records) {
+        lock.lock();
+        try {
+            open(0);
+            return writer.submit(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开用户日志时出错", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待记录持久化
+     *
+     * @param pending append 返回的 Future
+     * @throws UncheckedIOException 写入或刷盘失败
+     */
+    static void await(CompletableFuture<Void> pending) {
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) e.getCause();
+            }
+            throw new UncheckedIOException("写入用户日志时出错", new IOException(e.getCause()));
+        }
+    }
+
+    static ByteBuffer encodeAccount(String username, byte[] salt, byte[] hash, int iterations, long balance) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_ACCOUNT);
+            out.writeUTF(username);
+            out.write(salt);
+            out.write(hash);
+            out.writeInt(iterations);
+            out.writeLong(balance);
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ByteBuffer encodeBalance(String username, long balance, double accrual, int version) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_BALANCE);
+            out.writeUTF(username);
+            out.writeLong(balance);
+            out.writeDouble(accrual);
+            out.writeInt(version);
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ByteBuffer encodePassword(String username, byte[] salt, byte[] hash, int iterations) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_PASSWORD);
+            out.writeUTF(username);
+            out.write(salt);
+            out.write(hash);
+            out.writeInt(iterations);
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 计息周期记录，用户名为空
+     */
+    static ByteBuffer encodeInterest(long epoch, double index) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_INTEREST);
+            out.writeUTF("");
+            out.writeLong(epoch);
+            out.writeDouble(index);
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 给负载加上长度和 CRC 头
+     */
+    private static ByteBuffer frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static void apply(byte[] payload, AccountTable accounts) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String username = in.readUTF();
+        int slot = accounts.slot(username);
+        byte[] salt = new byte[AccountTable.SALT_BYTES];
+        byte[] hash = new byte[AccountTable.HASH_BYTES];
+
+        switch (type) {
+            case RECORD_ACCOUNT:
+                in.readFully(salt);
+                in.readFully(hash);
+                int accountIterations = in.readInt();
+                accounts.put(username, salt, hash, accountIterations, in.readLong(), accounts.accrualIndex(), 0);
+                break;
+            case RECORD_BALANCE:
+                long balance = in.readLong();
+                double accrual = in.readDouble();
+                int version = in.readInt();
+                // 版本号不大于当前值的记录已经包含在快照或更早回放的记录中
+                if (slot != AccountTable.NO_SLOT && version > accounts.version(slot)) {
+                    accounts.setBalance(slot, balance, accrual);
+                    accounts.setVersion(slot, version);
+                }
+                break;
+            case RECORD_INTEREST:
+                long epoch = in.readLong();
+                accounts.setAccrualIndex(in.readDouble(), epoch);
+                break;
+            case RECORD_PASSWORD:
+                in.readFully(salt);
+                in.readFully(hash);
+                int passwordIterations = in.readInt();
+                if (slot != AccountTable.NO_SLOT) {
+                    accounts.setCredentials(slot, salt, hash, passwordIterations);
+                }
+                break;
+            default:
+                throw new IOException("未知的日志记录类型: " + type);
+        }
+    }
+
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -1,111 +1,547 @@
 package com.harkerhand.backend.storage;
 
+import com.harkerhand.backend.config.ServerConfig;
 import com.harkerhand.backend.log.UserActivityLogger;
-import com.harkerhand.backend.model.User;
+import com.harkerhand.backend.metrics.ServerMetrics;
+import com.harkerhand.backend.security.PasswordService;
+import com.harkerhand.backend.utils.Money;
 import java.io.*;
-import java.util.Collection;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * 用户账户存储
+ * 账户保存在 {@link AccountTable} 中，余额一律以分为单位。每次变更在账户锁内修改内存并提交日志，
+ * 释放锁之后再等待日志落盘。利息默认惰性计算: 每个计息周期只推进全局累计指数，
+ * 账户余额在下一次读取或修改时才补计利息。
+ *
+ * 密码哈希由 {@link PasswordService} 在账户锁之外计算，慢哈希不会阻塞同一锁条带上其他账户的存取款。
+ * 哈希线程池排队已满时注册、登录和修改密码抛出 {@link java.util.concurrent.RejectedExecutionException}。
+ *
+ * 日志写入或刷盘失败是致命的：内存中的变更无法安全回滚，之后所有的变更都以
+ * {@link UncheckedIOException} 拒绝，检查点也不再写入，重启后从磁盘恢复。
+ * 客户端收到保存失败时内存中的变更不会被持久化，重试不会让它生效两次。
+ */
 public class UserStorage {
-    private static final String USER_FILE = "users.dat";
-    private static final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    /**
+     * 用户不存在
+     */
+    public static final long NO_ACCOUNT = -1;
+    /**
+     * 余额不足
+     */
+    public static final long INSUFFICIENT_FUNDS = -2;
+    /**
+     * 变更后余额超过 {@link Money#MAX_BALANCE}
+     */
+    public static final long BALANCE_LIMIT_EXCEEDED = -3;
+
+    static final String ACCOUNT_FILE = "accounts.db";
+    private static final String JOURNAL_DIR = "journal";
+    private static final AccountTable accounts = new AccountTable();
+    private static final UserJournal journal = new UserJournal(Paths.get(JOURNAL_DIR),
+            FsyncPolicy.fromConfig());
+    private static final ReentrantLock checkpointLock = new ReentrantLock();
+    private static final ReentrantLock interestLock = new ReentrantLock();
+    private static final InterestEngine interestEngine = new InterestEngine(accounts, journal);
     private static final Logger logger = Logger.getLogger("UserStorage");
 
     public static void loadUsers() {
-        File file = new File(USER_FILE);
-        if (!file.exists()) {
-            logger.info("用户文件不存在，将创建新文件");
-            return;
-        }
+        Path accountFile = Paths.get(ACCOUNT_FILE);
+        long fromSegment = 0;
+        try {
+            Path legacyFile = Paths.get(LegacyUserMigrator.LEGACY_USER_FILE);
+            if (!Files.exists(accountFile) && Files.exists(legacyFile)) {
+                logger.info("发现旧版用户文件，开始迁移");
+                LegacyUserMigrator.migrate(legacyFile, accountFile);
+            }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            @SuppressWarnings("unchecked")
-            Map<String, User> loadedUsers = (Map<String, User>) ois.readObject();
-            users.putAll(loadedUsers);
-            logger.info("已加载 " + users.size() + " 个用户");
-        } catch (Exception e) {
+            if (!Files.exists(accountFile)) {
+                logger.info("用户文件不存在，将创建新文件");
+            } else {
+                long start = System.nanoTime();
+                AccountFile.Snapshot snapshot = AccountFile.read(accountFile, accounts);
+                fromSegment = snapshot.journalSegment;
+                logger.info("已加载 " + snapshot.recordCount + " 个用户，耗时 "
+                        + (System.nanoTime() - start) / 1_000_000L + " 毫秒");
+            }
+        } catch (IOException e) {
             logger.log(Level.SEVERE, "加载用户数据时出错", e);
         }
+
+        try {
+            int replayed = journal.replay(accounts, fromSegment);
+            journal.open(fromSegment);
+            logger.info("从分段 " + fromSegment + " 起回放了 " + replayed + " 条用户日志记录，当前共 " + accounts.size() + " 个用户");
+            logger.info("用户日志刷盘策略: " + FsyncPolicy.fromConfig());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "回放用户日志时出错", e);
+        }
     }
 
+    /**
+     * 写入检查点：切换日志分段，保存完整的用户快照，然后删除已被快照覆盖的旧分段。
+     * 快照期间处理线程可以继续提交变更，这些变更都写入新分段，重启时会在快照之上回放。
+     * 快照期间持有利息锁：文件头只记录一个累计指数，计息周期若在快照中途推进，
+     * 已按新指数计息的余额会在回放新周期时再计一次利息。
+     */
     public static void saveUsers() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(USER_FILE))) {
-            oos.writeObject(users);
-            logger.info("已保存 " + users.size() + " 个用户");
-        } catch (IOException e) {
+        checkpointLock.lock();
+        long start = System.nanoTime();
+        try {
+            AccountFile.Snapshot snapshot = snapshot(Paths.get(ACCOUNT_FILE), accounts, journal, interestLock);
+            long saved = snapshot.recordCount;
+            long reclaimed = journal.deleteSegmentsBefore(snapshot.journalSegment);
+            long durationNanos = System.nanoTime() - start;
+            long durationMillis = durationNanos / 1_000_000L;
+            ServerMetrics.recordCheckpoint(durationNanos);
+            Checkpointer.record(durationMillis, reclaimed);
+            logger.info("已保存 " + saved + " 个用户，耗时 " + durationMillis + " 毫秒，回收日志 "
+                    + reclaimed + " 字节");
+        } catch (IOException | UncheckedIOException e) {
             logger.log(Level.SEVERE, "保存用户数据时出错", e);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * 切换日志分段并写入快照，整个过程持有利息锁，计息周期不会在快照中途推进
+     *
+     * @return 快照之后需要回放的分段和写入的账户数
+     */
+    static AccountFile.Snapshot snapshot(Path accountFile, AccountTable accounts, UserJournal journal,
+            ReentrantLock interestLock) throws IOException {
+        interestLock.lock();
+        try {
+            long segment = journal.rotate();
+            return new AccountFile.Snapshot(segment, AccountFile.write(accountFile, accounts, segment));
+        } finally {
+            interestLock.unlock();
         }
     }
 
+    /**
+     * 自上次检查点以来写入的日志字节数
+     */
+    static long journalSizeSinceCheckpoint() throws IOException {
+        return journal.currentSegmentSize();
+    }
+
+    /**
+     * 关闭存储，等待所有已提交的日志记录落盘
+     */
+    public static void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "关闭用户日志时出错", e);
+        }
+    }
+
+    /**
+     * 检查用户名能否存入账户文件的定长记录
+     *
+     * @param username 用户名
+     * @return 用户名合法返回true
+     */
+    public static boolean isValidUsername(String username) {
+        return !username.isEmpty() && AccountFile.fits(username);
+    }
+
     public static boolean userExists(String username) {
-        return users.containsKey(username);
+        return accounts.slot(username) != AccountTable.NO_SLOT;
     }
 
-    public static void addUser(String username, String password) {
-        User newUser = new User(username, password);
-        users.put(username, newUser);
-        saveUsers();
+    /**
+     * 注册新用户
+     *
+     * @param username 用户名
+     * @param password 密码
+     * @return 用户名已存在时返回false
+     */
+    public static boolean addUser(String username, String password) {
+        if (userExists(username)) {
+            // 不为已存在的用户名计算哈希；并发注册同名用户时由 insert 判定
+            return false;
+        }
+        byte[] salt = PasswordService.newSalt();
+        int iterations = PasswordService.iterations();
+        byte[] hash = PasswordService.hash(password, salt, iterations);
+        CompletableFuture<Void> pending;
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            ensureWritable();
+            if (accounts.insert(username, salt, hash, iterations, 0, accounts.accrualIndex(), 0)
+                    == AccountTable.NO_SLOT) {
+                return false;
+            }
+            pending = journal.appendAccount(username, salt, hash, iterations, 0);
+        } finally {
+            lock.unlock();
+        }
+        UserJournal.await(pending);
+        return true;
     }
 
+    /**
+     * 校验密码。哈希成本与当前配置不同的账户在校验成功后按当前成本重新哈希，
+     * 旧版 SHA-256 的账户在下一次登录时升级为 PBKDF2。
+     */
     public static boolean validateUser(String username, String password) {
-        User user = users.get(username);
-        return user != null && user.validatePassword(password);
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return false;
+        }
+        byte[] salt = new byte[AccountTable.SALT_BYTES];
+        byte[] hash = new byte[AccountTable.HASH_BYTES];
+        int iterations = readCredentials(slot, username, salt, hash);
+        if (!PasswordService.verify(password, salt, hash, iterations)) {
+            return false;
+        }
+        int target = PasswordService.iterations();
+        if (iterations != target) {
+            upgradeHash(slot, username, password, salt, target);
+        }
+        return true;
+    }
+
+    /**
+     * 盐值、哈希和迭代次数要成对读取，修改密码时三者在锁内一起更新
+     *
+     * @return 迭代次数
+     */
+    private static int readCredentials(int slot, String username, byte[] salt, byte[] hash) {
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            return accounts.credentials(slot, salt, hash);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public static User getUser(String username) {
-        return users.get(username);
+    /**
+     * 按新的迭代次数重新哈希已校验的密码。哈希线程池繁忙时放弃，下次登录再升级；
+     * 不等待日志落盘，升级记录丢失时原来的哈希仍然有效。
+     */
+    private static void upgradeHash(int slot, String username, String password, byte[] verifiedSalt,
+                                    int iterations) {
+        byte[] salt = PasswordService.newSalt();
+        byte[] hash;
+        try {
+            hash = PasswordService.hash(password, salt, iterations);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            // 计算期间密码被修改过，不能覆盖新密码；日志失败后不再升级
+            if (accounts.saltEquals(slot, verifiedSalt) && !journal.failed()) {
+                accounts.setCredentials(slot, salt, hash, iterations);
+                journal.appendPassword(username, salt, hash, iterations);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public static void updateUser(User user) {
-        if (user != null) {
-            users.put(user.getUsername(), user);
-            saveUsers();
+    /**
+     * 日志失败之后拒绝一切变更，在修改内存之前调用
+     *
+     * @throws UncheckedIOException 日志已经写入失败
+     */
+    private static void ensureWritable() {
+        if (journal.failed()) {
+            throw new UncheckedIOException(new IOException("用户日志写入失败，已停止接受变更"));
         }
     }
 
     /**
-     * 获取所有用户
-     * 
-     * @return 所有用户的集合
+     * 查询余额
+     *
+     * @param username 用户名
+     * @return 余额（分），用户不存在时返回 {@link #NO_ACCOUNT}
      */
-    public static Collection<User> getAllUsers() {
-        return users.values();
+    public static long getBalance(String username) {
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return NO_ACCOUNT;
+        }
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            return accrue(slot);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * 为所有用户账户添加利息
+     * 存款：在账户锁内修改余额并提交日志
+     *
+     * @param username 用户名
+     * @param amount   存款金额（分），必须大于零
+     * @return 存款后的余额，用户不存在时返回 {@link #NO_ACCOUNT}，
+     *         超过余额上限时返回 {@link #BALANCE_LIMIT_EXCEEDED}
+     */
+    public static long deposit(String username, long amount) {
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return NO_ACCOUNT;
+        }
+        long balance;
+        CompletableFuture<Void> pending;
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            ensureWritable();
+            balance = accrue(slot);
+            if (amount > Money.MAX_BALANCE - balance) {
+                return BALANCE_LIMIT_EXCEEDED;
+            }
+            balance += amount;
+            pending = updateBalance(slot, username, balance);
+        } finally {
+            lock.unlock();
+        }
+        UserJournal.await(pending);
+        return balance;
+    }
+
+    /**
+     * 取款：余额检查和扣款在同一把账户锁内完成，并发取款不会透支
+     *
+     * @param username 用户名
+     * @param amount   取款金额（分），必须大于零
+     * @return 取款后的余额，用户不存在时返回 {@link #NO_ACCOUNT}，余额不足时返回 {@link #INSUFFICIENT_FUNDS}
+     */
+    public static long withdraw(String username, long amount) {
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return NO_ACCOUNT;
+        }
+        long balance;
+        CompletableFuture<Void> pending;
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            ensureWritable();
+            balance = accrue(slot);
+            if (balance < amount) {
+                return INSUFFICIENT_FUNDS;
+            }
+            balance -= amount;
+            pending = updateBalance(slot, username, balance);
+        } finally {
+            lock.unlock();
+        }
+        UserJournal.await(pending);
+        return balance;
+    }
+
+    /**
+     * 修改密码：在锁外校验原密码并计算新哈希，写入前确认密码在此期间没有被修改过
+     *
+     * @param username    用户名
+     * @param oldPassword 原密码
+     * @param newPassword 新密码
+     * @return 用户不存在或原密码错误时返回false
+     */
+    public static boolean changePassword(String username, String oldPassword, String newPassword) {
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return false;
+        }
+        byte[] salt = new byte[AccountTable.SALT_BYTES];
+        byte[] hash = new byte[AccountTable.HASH_BYTES];
+        byte[] newSalt = null;
+        byte[] newHash = null;
+        int newIterations = PasswordService.iterations();
+        ReentrantLock lock = AccountLocks.forUser(username);
+        while (true) {
+            int iterations = readCredentials(slot, username, salt, hash);
+            if (!PasswordService.verify(oldPassword, salt, hash, iterations)) {
+                return false;
+            }
+            if (newHash == null) {
+                newSalt = PasswordService.newSalt();
+                newHash = PasswordService.hash(newPassword, newSalt, newIterations);
+            }
+            CompletableFuture<Void> pending = null;
+            lock.lock();
+            try {
+                ensureWritable();
+                if (accounts.saltEquals(slot, salt)) {
+                    accounts.setCredentials(slot, newSalt, newHash, newIterations);
+                    pending = journal.appendPassword(username, newSalt, newHash, newIterations);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (pending != null) {
+                UserJournal.await(pending);
+                return true;
+            }
+            // 校验期间密码被并发修改，按新的密码重新校验原密码
+        }
+    }
+
+    /**
+     * 在一次加锁和一次日志提交内对同一账户执行多笔余额变更
+     *
+     * @param username 用户名
+     * @param changes  每笔变更的金额（分），正数为存款，负数为取款
+     * @param atomic   为true时任意一笔被拒绝则全部不执行
+     * @return 每笔变更后的余额，被拒绝的变更为 {@link #INSUFFICIENT_FUNDS} 或 {@link #BALANCE_LIMIT_EXCEEDED}
+     *         （原子模式下出现负值表示全部未执行）；用户不存在时返回null
+     */
+    public static long[] applyBalanceChanges(String username, long[] changes, boolean atomic) {
+        int slot = accounts.slot(username);
+        if (slot == AccountTable.NO_SLOT) {
+            return null;
+        }
+
+        long[] balances = new long[changes.length];
+        CompletableFuture<Void> pending = null;
+        ReentrantLock lock = AccountLocks.forUser(username);
+        lock.lock();
+        try {
+            ensureWritable();
+            long balance = accrue(slot);
+            boolean applied = false;
+            boolean rejected = false;
+            for (int i = 0; i < changes.length; i++) {
+                if (changes[i] < 0 && balance < -changes[i]) {
+                    balances[i] = INSUFFICIENT_FUNDS;
+                    rejected = true;
+                } else if (changes[i] > Money.MAX_BALANCE - balance) {
+                    balances[i] = BALANCE_LIMIT_EXCEEDED;
+                    rejected = true;
+                } else {
+                    balance += changes[i];
+                    balances[i] = balance;
+                    applied = true;
+                }
+            }
+            if (applied && !(atomic && rejected)) {
+                // 余额记录保存的是绝对值，整批只需一条日志记录
+                pending = updateBalance(slot, username, balance);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (pending != null) {
+            UserJournal.await(pending);
+        }
+        return balances;
+    }
+
+    /**
+     * 把余额计息到当前的累计指数并记录补计的利息，调用方需持有该账户的锁。
+     * 补计的利息只修改内存，由调用方随下一条余额记录一起写入日志。
+     *
+     * @return 计息后的余额
+     */
+    private static long accrue(int slot) {
+        long balance = accounts.balance(slot);
+        long accrued = accounts.accrue(slot);
+        if (accrued != balance) {
+            logInterest(accounts.username(slot), accrued - balance);
+        }
+        return accrued;
+    }
+
+    /**
+     * 写入已计息到当前指数的新余额并提交日志，调用方需持有该账户的锁
+     */
+    private static CompletableFuture<Void> updateBalance(int slot, String username, long balance) {
+        double accrual = accounts.accrual(slot);
+        int version = accounts.changeBalance(slot, balance, accrual);
+        return journal.appendBalance(username, balance, accrual, version);
+    }
+
+    /**
+     * 进入下一个计息周期：只推进全局累计指数并写一条日志记录，与账户数量无关
+     *
+     * @param rate 本周期的利息率（如0.05表示5%）
+     * @return 当前的计息周期数
+     */
+    public static long accrueInterest(double rate) {
+        long epoch;
+        CompletableFuture<Void> pending;
+        interestLock.lock();
+        try {
+            ensureWritable();
+            epoch = accounts.accrualEpoch() + 1;
+            double index = accounts.accrualIndex() + Math.log1p(rate);
+            // 先提交日志再发布指数，按新指数计息的余额记录一定排在周期记录之后
+            pending = journal.appendInterest(epoch, index);
+            accounts.setAccrualIndex(index, epoch);
+        } finally {
+            interestLock.unlock();
+        }
+        UserJournal.await(pending);
+        return epoch;
+    }
+
+    /**
+     * 立即为所有用户账户添加利息（eager 模式），按 {@link ServerConfig#interestParallelism()} 并行入账
      * 
      * @param rate 利息率（如0.05表示5%）
      * @return 更新的账户数量
      */
-    public static synchronized int applyInterestToAllAccounts(double rate) {
-        int count = 0;
-        // 遍历所有用户并应用利息
-        for (User user : getAllUsers()) {
-            if (user.getBalance() > 0) {
-                double interest = user.getBalance() * rate;
-                user.setBalance(user.getBalance() + interest);
-
-                // 记录利息添加事件
-                try {
-                    UserActivityLogger
-                            .logInterestAddition(
-                                    user.getUsername(),
-                                    "INTEREST_ADDED",
-                                    "Added interest: " + String.format("%.2f", interest));
-                } catch (Exception e) {
-                    logger.warning("Failed to log interest addition for user " + user.getUsername());
-                }
+    public static int applyInterestToAllAccounts(double rate) {
+        return applyInterestToAllAccounts(rate, ServerConfig.interestParallelism());
+    }
 
-                count++;
-            }
+    /**
+     * 立即为所有用户账户添加利息，完成后发布新的计息周期
+     *
+     * @param rate        利息率（如0.05表示5%）
+     * @param parallelism 并行入账的线程数
+     * @return 更新的账户数量
+     */
+    public static int applyInterestToAllAccounts(double rate, int parallelism) {
+        interestLock.lock();
+        try {
+            ensureWritable();
+            int count = interestEngine.post(rate, parallelism);
+            // 所有分区的记录都已落盘（屏障），此时发布的周期号对应所有账户都已入账的状态
+            long epoch = accounts.accrualEpoch() + 1;
+            double index = accounts.accrualIndex();
+            CompletableFuture<Void> pending = journal.appendInterest(epoch, index);
+            accounts.setAccrualIndex(index, epoch);
+            UserJournal.await(pending);
+            return count;
+        } finally {
+            interestLock.unlock();
         }
+    }
 
-        // 保存更新后的用户数据
-        saveUsers();
-        return count;
+    /**
+     * @return 已发布的计息周期数
+     */
+    public static long interestEpoch() {
+        return accounts.accrualEpoch();
+    }
+
+    /**
+     * 记录利息添加事件
+     */
+    static void logInterest(String username, long interest) {
+        try {
+            UserActivityLogger.logInterest(username, interest);
+        } catch (Exception e) {
+            logger.warning("Failed to log interest addition for user " + username);
+        }
     }
 }
@@ -0,0 +1,125 @@
+package com.harkerhand.backend.utils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 金额工具类
+ * 服务器内部的金额一律是以分为单位的 long，只在协议边界与十进制小数互相转换。
+ *
+ * 舍入规则:
+ * 客户端输入的金额保留两位小数，第三位起四舍五入（HALF_UP）；
+ * 利息按银行家舍入（HALF_EVEN）取整到分，长期累计时舍入误差不会单向偏移。
+ */
+public final class Money {
+    /**
+     * 单笔存取款金额上限（分），即 100 亿元
+     */
+    public static final long MAX_AMOUNT = 1_000_000_000_000L;
+
+    /**
+     * 账户余额上限（分），即 1000 万亿元；远小于 Long.MAX_VALUE，存款和利息都不会溢出
+     */
+    public static final long MAX_BALANCE = 100_000_000_000_000_000L;
+
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final double LOG_MAX_BALANCE = Math.log(MAX_BALANCE);
+    private static final double EXACT_DOUBLE_LIMIT = 1L << 40;
+
+    private Money() {
+    }
+
+    /**
+     * 十进制金额（元）转换为分，HALF_UP 舍入，超出 long 范围时取边界值
+     */
+    public static long fromDecimal(BigDecimal yuan) {
+        BigDecimal cents = yuan.movePointRight(2).setScale(0, RoundingMode.HALF_UP);
+        if (cents.compareTo(LONG_MAX) > 0) {
+            return Long.MAX_VALUE;
+        } else if (cents.compareTo(LONG_MIN) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return cents.longValue();
+    }
+
+    /**
+     * double 金额（元）转换为分
+     * 按 double 的最短十进制表示舍入，因此 0.1 + 0.2 这样的结果也会得到 30 分。NaN 视为 0。
+     */
+    public static long fromDouble(double yuan) {
+        if (Double.isNaN(yuan)) {
+            return 0;
+        } else if (Double.isInfinite(yuan)) {
+            return yuan > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        double scaled = yuan * 100;
+        long rounded = Math.round(scaled);
+        if (scaled == rounded && Math.abs(rounded) < (1L << 52)) {
+            // 恰好是整分，不需要经过 BigDecimal
+            return rounded;
+        }
+        return fromDecimal(BigDecimal.valueOf(yuan));
+    }
+
+    /**
+     * 分转换为 double 金额（元），仅用于显示和旧接口
+     */
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * 计算利息，HALF_EVEN 舍入到分
+     *
+     * @param cents 余额（分）
+     * @param rate  利率（如 0.05 表示 5%）
+     * @return 利息（分）
+     */
+    public static long interest(long cents, double rate) {
+        BigDecimal interest = BigDecimal.valueOf(cents).multiply(BigDecimal.valueOf(rate))
+                .setScale(0, RoundingMode.HALF_EVEN);
+        return interest.compareTo(LONG_MAX) > 0 ? Long.MAX_VALUE : interest.longValue();
+    }
+
+    /**
+     * 按累计指数的增量补计复利，HALF_EVEN 舍入到分，结果不超过 {@link #MAX_BALANCE}
+     *
+     * @param cents  余额（分）
+     * @param growth 累计指数的增量，即各计息周期 ln(1 + 利率) 之和
+     * @return 计息后的余额（分）
+     */
+    public static long accrue(long cents, double growth) {
+        if (cents <= 0 || growth <= 0) {
+            return cents;
+        }
+        if (growth >= LOG_MAX_BALANCE) {
+            return Math.max(cents, MAX_BALANCE);
+        }
+        double accrued = cents * Math.exp(growth);
+        if (accrued < EXACT_DOUBLE_LIMIT) {
+            // Math.rint 即 HALF_EVEN；这个范围内乘积的误差远小于半分
+            return Math.min((long) Math.rint(accrued), MAX_BALANCE);
+        }
+        BigDecimal exact = BigDecimal.valueOf(cents).multiply(new BigDecimal(Math.exp(growth)))
+                .setScale(0, RoundingMode.HALF_EVEN);
+        return exact.compareTo(BigDecimal.valueOf(MAX_BALANCE)) > 0 ? Math.max(cents, MAX_BALANCE) : exact.longValue();
+    }
+
+    /**
+     * 格式化为两位小数的金额字符串，如 1234 分为 "12.34"
+     */
+    public static String format(long cents) {
+        long abs = Math.abs(cents);
+        StringBuilder text = new StringBuilder(24);
+        if (cents < 0) {
+            text.append('-');
+        }
+        text.append(abs / 100).append('.');
+        long fraction = abs % 100;
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction).toString();
+    }
+}
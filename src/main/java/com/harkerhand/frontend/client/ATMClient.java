@@ -1,6 +1,5 @@
 package com.harkerhand.frontend.client;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.harkerhand.frontend.ui.AuthUI;
 import com.harkerhand.frontend.ui.UserUI;
 import com.harkerhand.frontend.utils.ConsoleHelper;
@@ -11,16 +10,14 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.*;
-import java.net.*;
+import java.time.Duration;
 import java.util.concurrent.Callable;
 
-@Command(name = "atm", mixinStandardHelpOptions = true, version = "ATM 1.0", description = "ATM 客户端应用")
+@Command(name = "atm", mixinStandardHelpOptions = true, version = "ATM 1.0", description = "ATM 客户端应用",
+        subcommands = LoadGenerator.class)
 public class ATMClient implements Callable<Integer> {
 
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private ObjectMapper mapper = new ObjectMapper();
+    private AsyncATMClient client;
     private AuthUI authUI;
     private UserUI userUI;
 
@@ -30,6 +27,24 @@ public class ATMClient implements Callable<Integer> {
     @Option(names = { "-p", "--port" }, description = "服务器端口", defaultValue = "8888")
     private int port;
 
+    @Option(names = { "-b", "--binary" }, description = "使用二进制协议（服务器不支持时自动回退到 JSON）")
+    private boolean binary;
+
+    @Option(names = { "-t", "--timeout" }, description = "等待服务器响应的最长时间（秒）", defaultValue = "30")
+    private int timeoutSeconds;
+
+    String host() {
+        return host;
+    }
+
+    int port() {
+        return port;
+    }
+
+    boolean binary() {
+        return binary;
+    }
+
     public static void main(String[] args) {
         int exitCode = new CommandLine(new ATMClient()).execute(args);
         System.exit(exitCode);
@@ -45,21 +60,21 @@ public class ATMClient implements Callable<Integer> {
             System.err.println("错误: " + e.getMessage());
             return 1;
         } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (client != null) {
+                client.close();
             }
         }
     }
 
     private void connect() throws IOException {
-        socket = new Socket(host, port);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
-        System.out.println(ConsoleHelper.colorText("连接ATM服务器成功", AnsiColor.GREEN));
+        // 控制台同一时间只有一个用户，一个连接就够了
+        client = new AsyncATMClient(host, port, binary, 1, Duration.ofSeconds(timeoutSeconds));
+        System.out.println(ConsoleHelper.colorText("连接ATM服务器成功"
+                + (client.isBinary() ? "（二进制协议）" : ""), AnsiColor.GREEN));
 
         // 初始化UI组件
-        authUI = new AuthUI(in, out, mapper);
-        userUI = new UserUI(in, out, mapper);
+        authUI = new AuthUI(client);
+        userUI = new UserUI(client);
     }
 
     private void mainMenu() throws IOException {
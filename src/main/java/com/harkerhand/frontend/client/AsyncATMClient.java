@@ -0,0 +1,439 @@
+package com.harkerhand.frontend.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步的 ATM 客户端
+ *
+ * 每个操作立即返回 CompletableFuture，响应以 JSON 对象的形式给出（字段与 JSON 协议相同，
+ * 服务器返回的失败同样作为正常的响应，status 为 error）；连接中断或超时时 Future 以异常结束。
+ *
+ * 请求在固定数量的连接上流水线发送：每个请求带一个递增的 id，每个连接一个读取线程按 id 完成对应的 Future，
+ * 不需要为每次调用创建线程。同一用户的请求总是走同一个连接，服务器按到达顺序处理它们，
+ * 登录创建的会话也属于这个连接。登录成功后客户端记下会话令牌，之后该用户的请求自动带上令牌。
+ *
+ * 连接中断时，它上面未完成的请求全部失败，下一次使用时重新连接（连续失败时间隔逐渐拉长）。
+ * 服务器会结束在断开的连接上登录的会话，这些用户需要重新登录。
+ */
+public final class AsyncATMClient implements Closeable {
+    private static final long MIN_RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    private final Duration timeout;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Channel[] channels;
+    private final AtomicLong nextId = new AtomicLong();
+    // 已登录用户的会话令牌
+    private final ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * 建立所有连接，任一连接失败时抛出异常
+     *
+     * @param host        服务器地址
+     * @param port        服务器端口
+     * @param binary      是否尝试使用二进制协议
+     * @param connections 连接数
+     * @param timeout     默认的请求超时
+     */
+    public AsyncATMClient(String host, int port, boolean binary, int connections, Duration timeout)
+            throws IOException {
+        this.host = host;
+        this.port = port;
+        this.binary = binary;
+        this.timeout = timeout;
+        this.channels = new Channel[Math.max(1, connections)];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new Channel(i);
+        }
+        try {
+            for (Channel channel : channels) {
+                channel.link();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 第一个连接实际使用的是否为二进制协议
+     */
+    public boolean isBinary() {
+        Link link = channels[0].current;
+        return link != null && link.connection.isBinary();
+    }
+
+    public CompletableFuture<JsonNode> register(String username, String password) {
+        ObjectNode request = request("register", username);
+        request.put("password", password);
+        return send(request);
+    }
+
+    /**
+     * 登录，成功后记下会话令牌
+     */
+    public CompletableFuture<JsonNode> login(String username, String password) {
+        ObjectNode request = request("login", username);
+        request.put("password", password);
+        return send(request).thenApply(response -> {
+            if (isSuccess(response) && response.hasNonNull("token")) {
+                tokens.put(username, response.path("token").asText());
+            }
+            return response;
+        });
+    }
+
+    /**
+     * 注销，无论结果如何都丢弃会话令牌
+     */
+    public CompletableFuture<JsonNode> logout(String username) {
+        return send(request("logout", username)).whenComplete((response, error) -> tokens.remove(username));
+    }
+
+    public CompletableFuture<JsonNode> query(String username) {
+        return send(request("query", username));
+    }
+
+    /**
+     * @param amount 金额（元）
+     */
+    public CompletableFuture<JsonNode> deposit(String username, double amount) {
+        ObjectNode request = request("deposit", username);
+        request.put("amount", amount);
+        return send(request);
+    }
+
+    /**
+     * @param amount 金额（元）
+     */
+    public CompletableFuture<JsonNode> withdraw(String username, double amount) {
+        ObjectNode request = request("withdraw", username);
+        request.put("amount", amount);
+        return send(request);
+    }
+
+    public CompletableFuture<JsonNode> changePassword(String username, String oldPassword, String newPassword) {
+        ObjectNode request = request("change_password", username);
+        request.put("oldPassword", oldPassword);
+        request.put("newPassword", newPassword);
+        return send(request);
+    }
+
+    /**
+     * @param limit 最多返回的交易条数，0 表示服务器默认值
+     */
+    public CompletableFuture<JsonNode> statement(String username, int limit) {
+        ObjectNode request = request("statement", username);
+        if (limit > 0) {
+            request.put("limit", limit);
+        }
+        return send(request);
+    }
+
+    /**
+     * @param limit 最多返回的活动记录条数，0 表示服务器默认值
+     */
+    public CompletableFuture<JsonNode> history(String username, int limit) {
+        ObjectNode request = request("history", username);
+        if (limit > 0) {
+            request.put("limit", limit);
+        }
+        return send(request);
+    }
+
+    /**
+     * 创建带操作、用户名和（已登录时）会话令牌的请求，用于发送没有专门方法的操作
+     */
+    public ObjectNode request(String action, String username) {
+        ObjectNode request = mapper.createObjectNode();
+        request.put("action", action);
+        request.put("username", username);
+        String token = tokens.get(username);
+        if (token != null) {
+            request.put("token", token);
+        }
+        return request;
+    }
+
+    /**
+     * 使用默认超时发送请求
+     */
+    public CompletableFuture<JsonNode> send(ObjectNode request) {
+        return send(request, timeout);
+    }
+
+    /**
+     * 发送请求，请求中的 id 会被替换
+     *
+     * @param request 请求
+     * @param timeout 超时，到期时 Future 以 TimeoutException 结束
+     * @return 服务器的响应
+     */
+    public CompletableFuture<JsonNode> send(ObjectNode request, Duration timeout) {
+        long id = nextId.incrementAndGet();
+        request.put("id", id);
+        CompletableFuture<JsonNode> result = new CompletableFuture<>();
+        Channel channel = channelFor(request.path("username").asText());
+        Link link;
+        try {
+            link = channel.link();
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        byte[] frame;
+        try {
+            frame = link.connection.encode(request);
+        } catch (IOException e) {
+            // 请求本身有问题，只影响这一次调用，连接仍然可用
+            result.completeExceptionally(e);
+            return result;
+        }
+        link.pending.put(id, result);
+        // 超时或被调用方取消后，迟到的响应直接丢弃
+        result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .whenComplete((response, error) -> link.pending.remove(id));
+        try {
+            link.connection.write(frame);
+        } catch (IOException e) {
+            channel.broken(link, e);
+        }
+        if (link.dead) {
+            // 连接在登记之后才被判定为中断，它的请求可能已经全部失败过一遍
+            result.completeExceptionally(new IOException("与服务器的连接已断开"));
+        }
+        return result;
+    }
+
+    private Channel channelFor(String username) {
+        return channels[Math.floorMod(username.hashCode(), channels.length)];
+    }
+
+    private static boolean isSuccess(JsonNode response) {
+        return "success".equals(response.path("status").asText());
+    }
+
+    /**
+     * 等待 Future 完成，供同步调用方（如控制台界面）使用
+     *
+     * @throws IOException 连接异常、超时或等待被中断
+     */
+    public static JsonNode await(CompletableFuture<JsonNode> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof TimeoutException) {
+                throw new IOException("等待服务器响应超时", cause);
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待服务器响应时被中断", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Channel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 一个连接和在它上面等待响应的请求
+     */
+    private static final class Link {
+        final ServerConnection connection;
+        final ConcurrentHashMap<Long, CompletableFuture<JsonNode>> pending = new ConcurrentHashMap<>();
+        volatile boolean dead;
+
+        Link(ServerConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * 连接池中的一个位置，连接中断后在下一次使用时重建
+     *
+     * 建立连接（包括最长 2 秒的协议握手）不持有锁：第一个发现没有连接的调用方负责连接，
+     * 同时到达的调用方等待它的结果，其他连接上的请求和中断处理都不受影响。
+     */
+    private final class Channel {
+        private final int index;
+        // 保护连接的发布和重连退避，持有期间不做网络 I/O
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Link current;
+        // 正在进行的连接，没有时为 null
+        private CompletableFuture<Link> connecting;
+        private long reconnectDelayNanos;
+        private long retryAtNanos;
+
+        Channel(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return 当前的连接，没有时建立新连接
+         * @throws IOException 客户端已关闭或连接失败
+         */
+        Link link() throws IOException {
+            if (closed) {
+                throw new IOException("客户端已关闭");
+            }
+            Link link = current;
+            if (link != null) {
+                return link;
+            }
+            CompletableFuture<Link> attempt;
+            boolean owner = false;
+            lock.lock();
+            try {
+                if (current != null) {
+                    return current;
+                }
+                if (connecting == null) {
+                    if (System.nanoTime() - retryAtNanos < 0) {
+                        throw new IOException("无法连接服务器，稍后重试");
+                    }
+                    connecting = new CompletableFuture<>();
+                    owner = true;
+                }
+                attempt = connecting;
+            } finally {
+                lock.unlock();
+            }
+            if (owner) {
+                connect(attempt);
+            }
+            try {
+                return attempt.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * 在锁外建立连接，然后在锁内发布或记录失败
+         */
+        private void connect(CompletableFuture<Link> attempt) {
+            Link link = null;
+            IOException error = null;
+            boolean published = false;
+            try {
+                link = new Link(new ServerConnection(host, port, binary, mapper));
+            } catch (IOException e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                connecting = null;
+                if (link == null) {
+                    reconnectDelayNanos = reconnectDelayNanos == 0
+                            ? MIN_RECONNECT_DELAY_NANOS
+                            : Math.min(MAX_RECONNECT_DELAY_NANOS, reconnectDelayNanos * 2);
+                    retryAtNanos = System.nanoTime() + reconnectDelayNanos;
+                } else if (!closed) {
+                    current = link;
+                    published = true;
+                    reconnectDelayNanos = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (link == null) {
+                attempt.completeExceptionally(error);
+            } else if (!published) {
+                // 连接期间客户端被关闭
+                try {
+                    link.connection.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+                attempt.completeExceptionally(new IOException("客户端已关闭"));
+            } else {
+                Link started = link;
+                Thread.ofVirtual().name("atm-client-reader-" + index).start(() -> read(started));
+                attempt.complete(link);
+            }
+        }
+
+        /**
+         * 连接的读取线程：按 id 完成等待中的请求
+         */
+        private void read(Link link) {
+            try {
+                while (true) {
+                    JsonNode response = link.connection.read();
+                    CompletableFuture<JsonNode> call = link.pending.remove(response.path("id").asLong(-1));
+                    if (call != null) {
+                        call.complete(response);
+                    }
+                }
+            } catch (IOException e) {
+                broken(link, e);
+            }
+        }
+
+        /**
+         * 连接中断：关闭它，让等待中的请求失败，并丢弃在它上面登录的会话
+         */
+        void broken(Link link, IOException cause) {
+            lock.lock();
+            try {
+                if (link.dead) {
+                    return;
+                }
+                link.dead = true;
+                if (current == link) {
+                    current = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                link.connection.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            tokens.keySet().removeIf(username -> channelFor(username) == this);
+            IOException error = closed ? new IOException("客户端已关闭") : new IOException("与服务器的连接已断开", cause);
+            for (CompletableFuture<JsonNode> call : link.pending.values()) {
+                call.completeExceptionally(error);
+            }
+            link.pending.clear();
+        }
+
+        void close() {
+            Link link = current;
+            if (link != null) {
+                broken(link, new IOException("客户端已关闭"));
+            }
+        }
+    }
+}
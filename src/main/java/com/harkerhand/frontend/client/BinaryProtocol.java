@@ -0,0 +1,246 @@
+package com.harkerhand.frontend.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 客户端的二进制协议编解码
+ * 帧格式与服务器端 BinaryCodec 一致。请求和响应在客户端仍以 JSON 对象表示，
+ * 字段名与 JSON 协议相同，因此界面代码不需要关心实际使用的协议。
+ */
+public class BinaryProtocol {
+    static final int MAGIC = 0xA7544D42;
+    static final byte VERSION = 1;
+    static final int HANDSHAKE_BYTES = 5;
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_ATOMIC = 2;
+    private static final int FLAG_TOKEN = 4;
+
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_MESSAGE = 1 << 1;
+    private static final int FIELD_ACTION = 1 << 2;
+    private static final int FIELD_AMOUNT = 1 << 3;
+    private static final int FIELD_BALANCE = 1 << 4;
+    private static final int FIELD_APPLIED = 1 << 5;
+    private static final int FIELD_RESULTS = 1 << 6;
+    private static final int FIELD_TIME = 1 << 7;
+    private static final int FIELD_TOKEN = 1 << 8;
+    private static final int FIELD_STATS = 1 << 9;
+
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+
+    private static final String[] ACTIONS = {
+            null, "register", "login", "query", "deposit", "withdraw", "logout", "change_password", "batch",
+            "history", "interest", "statement", "stats"
+    };
+
+    /**
+     * @return 客户端发送的握手字节
+     */
+    static byte[] handshake() {
+        return ByteBuffer.allocate(HANDSHAKE_BYTES).putInt(MAGIC).put(VERSION).array();
+    }
+
+    /**
+     * 检查服务器的握手回复
+     *
+     * @return 服务器接受二进制协议返回true
+     */
+    static boolean accepted(byte[] reply) {
+        ByteBuffer buffer = ByteBuffer.wrap(reply);
+        return buffer.getInt() == MAGIC && buffer.get() == VERSION;
+    }
+
+    /**
+     * 把 JSON 形式的请求编码为带长度前缀的二进制帧
+     *
+     * @param request 请求，id 字段如果存在必须是整数
+     * @return 帧
+     * @throws IOException 请求的 action 不受支持
+     */
+    public static byte[] encodeRequest(JsonNode request) throws IOException {
+        String action = request.path("action").asText();
+        byte opcode = opcode(action);
+        if (opcode == 0) {
+            throw new IOException("二进制协议不支持的操作: " + action);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        int flags = 0;
+        if (request.has("id")) {
+            flags |= FLAG_ID;
+        }
+        if (request.path("atomic").asBoolean(false)) {
+            flags |= FLAG_ATOMIC;
+        }
+        if (request.hasNonNull("token")) {
+            flags |= FLAG_TOKEN;
+        }
+        out.writeByte(opcode);
+        out.writeByte(flags);
+        if ((flags & FLAG_ID) != 0) {
+            out.writeLong(request.path("id").asLong());
+        }
+        if ((flags & FLAG_TOKEN) != 0) {
+            writeString(out, request.path("token").asText());
+        }
+        writeString(out, request.path("username").asText());
+
+        switch (action) {
+            case "register":
+            case "login":
+                writeString(out, request.path("password").asText());
+                break;
+            case "deposit":
+            case "withdraw":
+                out.writeLong(toCents(request.path("amount").asDouble()));
+                break;
+            case "change_password":
+                writeString(out, request.path("oldPassword").asText());
+                writeString(out, request.path("newPassword").asText());
+                break;
+            case "history":
+            case "statement":
+                out.writeShort(Math.min(Math.max(request.path("limit").asInt(0), 0), 0xFFFF));
+                break;
+            case "batch":
+                JsonNode requests = request.path("requests");
+                out.writeShort(requests.size());
+                for (JsonNode sub : requests) {
+                    out.writeByte(opcode(sub.path("action").asText()));
+                    out.writeLong(toCents(sub.path("amount").asDouble()));
+                }
+                break;
+            default:
+                break;
+        }
+
+        byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(frame.length - Integer.BYTES);
+        return frame;
+    }
+
+    /**
+     * 读取一帧响应并转换为 JSON 形式
+     *
+     * @param in     连接输入流
+     * @param mapper 用于创建 JSON 对象
+     * @return 响应
+     */
+    public static ObjectNode readResponse(DataInputStream in, ObjectMapper mapper) throws IOException {
+        int length = in.readInt();
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return readResponse(ByteBuffer.wrap(frame), mapper);
+    }
+
+    private static ObjectNode readResponse(ByteBuffer frame, ObjectMapper mapper) {
+        ObjectNode response = mapper.createObjectNode();
+        boolean success = frame.get() == 0;
+        int mask = frame.getShort();
+        if ((mask & FIELD_ACTION) != 0) {
+            // action 在 JSON 中排在最前面，先占位
+            response.put("action", "");
+        }
+        response.put("status", success ? "success" : "error");
+        if ((mask & FIELD_ID) != 0) {
+            response.put("id", frame.getLong());
+        }
+        if ((mask & FIELD_MESSAGE) != 0) {
+            response.put("message", readString(frame));
+        }
+        if ((mask & FIELD_ACTION) != 0) {
+            byte opcode = frame.get();
+            response.put("action", opcode > 0 && opcode < ACTIONS.length ? ACTIONS[opcode] : "");
+        }
+        if ((mask & FIELD_AMOUNT) != 0) {
+            response.put("amount", frame.getLong() / 100.0);
+        }
+        if ((mask & FIELD_BALANCE) != 0) {
+            response.put("balance", frame.getLong() / 100.0);
+        }
+        if ((mask & FIELD_APPLIED) != 0) {
+            response.put("applied", frame.getInt());
+        }
+        if ((mask & FIELD_RESULTS) != 0) {
+            ArrayNode results = response.putArray("results");
+            int count = Short.toUnsignedInt(frame.getShort());
+            for (int i = 0; i < count; i++) {
+                results.add(readResponse(frame, mapper));
+            }
+        }
+        if ((mask & FIELD_TIME) != 0) {
+            response.put("time", frame.getLong());
+        }
+        if ((mask & FIELD_TOKEN) != 0) {
+            response.put("token", readString(frame));
+        }
+        if ((mask & FIELD_STATS) != 0) {
+            ObjectNode stats = response.putObject("stats");
+            int count = Short.toUnsignedInt(frame.getShort());
+            for (int i = 0; i < count; i++) {
+                String name = readString(frame);
+                stats.put(name, frame.getLong());
+            }
+        }
+        return response;
+    }
+
+    private static byte opcode(String action) {
+        for (byte i = 1; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("字符串过长");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer frame) {
+        byte[] bytes = new byte[Short.toUnsignedInt(frame.getShort())];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 与服务器的 Money.fromDouble 相同：按 double 的最短十进制表示四舍五入到分，
+     * 同一金额经 JSON 协议（服务器按十进制文本舍入）和二进制协议得到相同的分数，如 1.005 都是 101 分
+     */
+    private static long toCents(double amount) {
+        if (Double.isNaN(amount)) {
+            return 0;
+        } else if (Double.isInfinite(amount)) {
+            return amount > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        BigDecimal cents = BigDecimal.valueOf(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP);
+        if (cents.compareTo(LONG_MAX) > 0) {
+            return Long.MAX_VALUE;
+        } else if (cents.compareTo(LONG_MIN) < 0) {
+            return Long.MIN_VALUE;
+        }
+        return cents.longValue();
+    }
+}
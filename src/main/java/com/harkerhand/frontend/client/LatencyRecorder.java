@@ -0,0 +1,61 @@
+package com.harkerhand.frontend.client;
+
+/**
+ * 负载测试的延迟直方图
+ * 每个 2 的幂区间等分为 32 个子桶，相对误差约 3%。只在一个会话线程上记录，结束后合并各会话的结果。
+ */
+final class LatencyRecorder {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // 超过 2^40 纳秒（约 18 分钟）的值记入最后一个桶
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final long[] counts = new long[(MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    void record(long nanos) {
+        long value = Math.max(0, Math.min(MAX_VALUE, nanos));
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        counts[(int) (shift * SUB_BUCKETS + (value >>> shift))]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    void add(LatencyRecorder other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * @return 百分位数（纳秒），取所在桶的最大值，但不超过记录过的最大值
+     */
+    long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                int shift = Math.max(0, i / SUB_BUCKETS - 1);
+                long highest = ((long) (i - shift * SUB_BUCKETS) << shift) + (1L << shift) - 1;
+                return Math.min(highest, max);
+            }
+        }
+        return max;
+    }
+}
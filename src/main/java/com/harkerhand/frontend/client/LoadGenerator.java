@@ -0,0 +1,378 @@
+package com.harkerhand.frontend.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 无界面的负载生成器
+ *
+ * 打开 users 个并发会话，每个会话使用一个连接，以合成的用户名登录（不存在时先注册），
+ * 然后按 mix 指定的比例发送 query、deposit、withdraw、change_password，总速率为 rate。
+ *
+ * 调度是开环的：每个会话的第 k 个请求计划在固定的时间点发送，与之前的请求何时完成无关，
+ * 延迟从计划发送时间算起。服务器变慢时排在后面的请求会晚发，这段等待同样计入延迟，
+ * 不会因为客户端跟着放慢而掩盖排队（coordinated omission）。
+ *
+ * 服务器默认对登录、改密码和存取款按 IP 限流，单台机器施加的负载很快会被限流；
+ * 被限流的响应单独计数，压测时应以 -Datm.rateLimit.enabled=false 启动服务器。
+ */
+@Command(name = "load", mixinStandardHelpOptions = true, description = "对服务器施加合成负载并报告吞吐和延迟")
+public class LoadGenerator implements Callable<Integer> {
+    private static final String[] ACTIONS = { "query", "deposit", "withdraw", "change_password" };
+    private static final String THROTTLED = "请求过于频繁，请稍后重试";
+    private static final int SETUP_ATTEMPTS = 100;
+    private static final long SETUP_RETRY_MILLIS = 200;
+
+    @ParentCommand
+    private ATMClient parent;
+
+    @Option(names = { "-u", "--users" }, description = "并发会话数", defaultValue = "50")
+    private int users;
+
+    @Option(names = { "-r", "--rate" }, description = "目标总速率（请求/秒）", defaultValue = "1000")
+    private double rate;
+
+    @Option(names = { "-d", "--duration" }, description = "测量时长（秒）", defaultValue = "30")
+    private int duration;
+
+    @Option(names = { "-w", "--warmup" }, description = "预热时长（秒），不计入结果", defaultValue = "5")
+    private int warmup;
+
+    @Option(names = { "-m", "--mix" }, split = ",", description = "操作比例，如 query=60,deposit=20",
+            defaultValue = "query=60,deposit=20,withdraw=15,change_password=5")
+    private Map<String, Integer> mix = new LinkedHashMap<>();
+
+    @Option(names = "--amount", description = "每次存取款的金额（元）", defaultValue = "1.00")
+    private double amount;
+
+    @Option(names = "--user-prefix", description = "合成用户名的前缀", defaultValue = "load-")
+    private String userPrefix;
+
+    @Option(names = "--password", description = "合成用户的密码", defaultValue = "load-password")
+    private String password;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    // 按 ACTIONS 的顺序累积的权重
+    private int[] weights;
+
+    @Override
+    public Integer call() throws Exception {
+        if (users <= 0 || rate <= 0 || duration <= 0 || warmup < 0) {
+            System.err.println("users、rate、duration 必须大于零");
+            return 2;
+        }
+        weights = new int[ACTIONS.length];
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            int index = indexOf(entry.getKey());
+            if (index < 0 || entry.getValue() < 0) {
+                System.err.println("无效的操作比例: " + entry.getKey() + "=" + entry.getValue());
+                return 2;
+            }
+            weights[index] = entry.getValue();
+        }
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            weights[i] = total;
+        }
+        if (total == 0) {
+            System.err.println("操作比例之和必须大于零");
+            return 2;
+        }
+
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            sessions.add(new Session(i));
+        }
+        System.out.println("正在建立 " + users + " 个会话...");
+        runAll(sessions, Session::open);
+        int ready = 0;
+        for (Session session : sessions) {
+            if (session.connection != null) {
+                ready++;
+            }
+        }
+        if (ready == 0) {
+            System.err.println("没有可用的会话");
+            return 1;
+        }
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        System.out.printf("%d 个会话就绪，目标速率 %.0f 请求/秒，预热 %d 秒，测量 %d 秒%n",
+                ready, rate, warmup, duration);
+        for (Session session : sessions) {
+            session.schedule(start, measureStart, end);
+        }
+        runAll(sessions, Session::drive);
+        runAll(sessions, Session::close);
+
+        report(sessions, measureStart);
+        return 0;
+    }
+
+    private static int indexOf(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 每个会话一个虚拟线程，等待全部完成
+     */
+    private static void runAll(List<Session> sessions, Consumer<Session> task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            threads.add(Thread.ofVirtual().name("load-" + session.index).start(() -> task.accept(session)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void report(List<Session> sessions, long measureStart) {
+        LatencyRecorder overall = new LatencyRecorder();
+        long[] errors = new long[ACTIONS.length];
+        long throttled = 0;
+        long failedSessions = 0;
+        long maxLag = 0;
+        long lastCompletion = measureStart;
+        LatencyRecorder[] byAction = new LatencyRecorder[ACTIONS.length];
+        for (int i = 0; i < ACTIONS.length; i++) {
+            byAction[i] = new LatencyRecorder();
+        }
+        for (Session session : sessions) {
+            for (int i = 0; i < ACTIONS.length; i++) {
+                byAction[i].add(session.latencies[i]);
+                overall.add(session.latencies[i]);
+                errors[i] += session.errors[i];
+            }
+            throttled += session.throttled;
+            failedSessions += session.failed ? 1 : 0;
+            maxLag = Math.max(maxLag, session.maxLag);
+            lastCompletion = Math.max(lastCompletion, session.lastCompletion);
+        }
+
+        // 按实际完成的时间计算，服务器跟不上时吞吐低于目标速率
+        double seconds = Math.max(1, lastCompletion - measureStart) / 1e9;
+        System.out.println();
+        System.out.printf("%-16s %10s %8s %10s %10s %10s %10s%n",
+                "action", "count", "errors", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+        long totalErrors = 0;
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (byAction[i].getCount() > 0) {
+                printRow(ACTIONS[i], byAction[i], errors[i]);
+            }
+            totalErrors += errors[i];
+        }
+        printRow("total", overall, totalErrors);
+        System.out.println();
+        System.out.printf("吞吐: %.1f 请求/秒（目标 %.0f）%n", overall.getCount() / seconds, rate);
+        System.out.printf("最大发送滞后: %.3f ms%n", maxLag / 1e6);
+        if (throttled > 0) {
+            System.out.println("被限流的请求: " + throttled + "（计入失败），压测时请以 -Datm.rateLimit.enabled=false"
+                    + " 启动服务器");
+        }
+        if (failedSessions > 0) {
+            System.out.println("连接中断的会话: " + failedSessions);
+        }
+    }
+
+    private static void printRow(String name, LatencyRecorder latencies, long errors) {
+        System.out.printf("%-16s %10d %8d %10.3f %10.3f %10.3f %10.3f%n", name, latencies.getCount(), errors,
+                latencies.percentile(0.5) / 1e6, latencies.percentile(0.99) / 1e6,
+                latencies.percentile(0.999) / 1e6, latencies.getMax() / 1e6);
+    }
+
+    /**
+     * 一个合成用户的会话，只在自己的线程上使用
+     */
+    private final class Session {
+        final int index;
+        final String username;
+        final LatencyRecorder[] latencies = new LatencyRecorder[ACTIONS.length];
+        final long[] errors = new long[ACTIONS.length];
+        ServerConnection connection;
+        long throttled;
+        long maxLag;
+        long lastCompletion;
+        boolean failed;
+        private long start;
+        private long measureStart;
+        private long end;
+
+        Session(int index) {
+            this.index = index;
+            this.username = userPrefix + index;
+            for (int i = 0; i < ACTIONS.length; i++) {
+                latencies[i] = new LatencyRecorder();
+            }
+        }
+
+        void schedule(long start, long measureStart, long end) {
+            this.start = start;
+            this.measureStart = measureStart;
+            this.end = end;
+        }
+
+        /**
+         * 连接并登录，用户不存在时先注册；登录后存入一笔余额，让取款不会因余额不足而失败
+         */
+        void open() {
+            try {
+                connection = new ServerConnection(parent.host(), parent.port(), parent.binary(), mapper);
+                JsonNode response = setup(request("login").put("password", password));
+                if (!isSuccess(response) && "用户名或密码错误".equals(response.path("message").asText())) {
+                    setup(request("register").put("password", password));
+                    response = setup(request("login").put("password", password));
+                }
+                if (!isSuccess(response)) {
+                    throw new IOException("登录失败: " + response.path("message").asText());
+                }
+                connection.setSessionToken(response.path("token").asText(null));
+                setup(request("deposit").put("amount", Math.max(amount, 0.01) * 1000));
+            } catch (IOException e) {
+                System.err.println(username + ": " + e.getMessage());
+                closeQuietly();
+                connection = null;
+            }
+        }
+
+        /**
+         * 准备阶段的请求，被限流时稍后重试
+         */
+        private JsonNode setup(ObjectNode request) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                JsonNode response = connection.send(request);
+                if (isSuccess(response) || !THROTTLED.equals(response.path("message").asText())
+                        || attempt == SETUP_ATTEMPTS) {
+                    return response;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SETUP_RETRY_MILLIS));
+            }
+        }
+
+        /**
+         * 按计划时间发送请求：会话之间错开，每个会话的间隔为 users / rate 秒
+         */
+        void drive() {
+            if (connection == null) {
+                return;
+            }
+            long interval = (long) (users * 1e9 / rate);
+            long intended = start + (long) (index * 1e9 / rate);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (intended < end) {
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                maxLag = Math.max(maxLag, now - intended);
+                int action = pick(random.nextInt(weights[weights.length - 1]));
+                JsonNode response;
+                try {
+                    response = connection.send(newRequest(action));
+                } catch (IOException e) {
+                    failed = true;
+                    System.err.println(username + ": 连接中断: " + e.getMessage());
+                    return;
+                }
+                if (intended >= measureStart) {
+                    lastCompletion = System.nanoTime();
+                    latencies[action].record(lastCompletion - intended);
+                    if (!isSuccess(response)) {
+                        errors[action]++;
+                        if (THROTTLED.equals(response.path("message").asText())) {
+                            throttled++;
+                        }
+                    }
+                }
+                intended += interval;
+            }
+        }
+
+        void close() {
+            if (connection == null || failed) {
+                closeQuietly();
+                return;
+            }
+            try {
+                connection.send(request("logout"));
+            } catch (IOException e) {
+                // 连接断开时服务器同样会结束会话
+            }
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+
+        private int pick(int value) {
+            for (int i = 0; i < weights.length; i++) {
+                if (value < weights[i]) {
+                    return i;
+                }
+            }
+            return weights.length - 1;
+        }
+
+        private ObjectNode newRequest(int action) {
+            ObjectNode request = request(ACTIONS[action]);
+            switch (ACTIONS[action]) {
+                case "deposit":
+                case "withdraw":
+                    request.put("amount", amount);
+                    break;
+                case "change_password":
+                    // 改为同一个密码，会话可以反复执行
+                    request.put("oldPassword", password);
+                    request.put("newPassword", password);
+                    break;
+                default:
+                    break;
+            }
+            return request;
+        }
+
+        private ObjectNode request(String action) {
+            ObjectNode request = connection.createRequest();
+            request.put("action", action);
+            request.put("username", username);
+            if (connection.getSessionToken() != null) {
+                request.put("token", connection.getSessionToken());
+            }
+            return request;
+        }
+
+        private boolean isSuccess(JsonNode response) {
+            return "success".equals(response.path("status").asText());
+        }
+    }
+}
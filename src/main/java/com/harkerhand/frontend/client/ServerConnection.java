@@ -0,0 +1,190 @@
+package com.harkerhand.frontend.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 与 ATM 服务器的连接
+ * 可以在连接时协商二进制协议，服务器不支持或握手超时时回退到 JSON。
+ * 无论使用哪种协议，请求和响应都以 JSON 对象的形式提供给调用方。
+ */
+public class ServerConnection implements Closeable {
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final ObjectMapper mapper;
+    // 多个线程同时发送时保证帧不交错；使用 ReentrantLock，虚拟线程在阻塞写入时不会占住载体线程
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Socket socket;
+    private boolean binary;
+    private BufferedReader reader;
+    private DataInputStream input;
+    private OutputStream output;
+    private String sessionToken;
+
+    /**
+     * @param host   服务器地址
+     * @param port   服务器端口
+     * @param binary 是否尝试使用二进制协议
+     * @param mapper 用于创建请求和解析响应
+     */
+    public ServerConnection(String host, int port, boolean binary, ObjectMapper mapper) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.mapper = mapper;
+        if (!binary || !connectBinary()) {
+            connectJson();
+        }
+    }
+
+    private boolean connectBinary() throws IOException {
+        socket = new Socket(host, port);
+        output = new BufferedOutputStream(socket.getOutputStream());
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output.write(BinaryProtocol.handshake());
+        output.flush();
+
+        byte[] reply = new byte[BinaryProtocol.HANDSHAKE_BYTES];
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        try {
+            input.readFully(reply);
+        } catch (SocketTimeoutException | EOFException e) {
+            // 只支持 JSON 的旧服务器不会回复握手
+            socket.close();
+            return false;
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(0);
+            }
+        }
+
+        if (!BinaryProtocol.accepted(reply)) {
+            socket.close();
+            return false;
+        }
+        binary = true;
+        return true;
+    }
+
+    private void connectJson() throws IOException {
+        socket = new Socket(host, port);
+        output = socket.getOutputStream();
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        binary = false;
+    }
+
+    /**
+     * @return 实际使用的是否为二进制协议
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return 登录时服务器发放的会话令牌，未登录时返回null
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    public ObjectNode createRequest() {
+        return mapper.createObjectNode();
+    }
+
+    /**
+     * 发送请求并等待响应
+     *
+     * @param request 请求
+     * @return 响应
+     * @throws IOException 连接异常或服务器关闭连接
+     */
+    public JsonNode send(ObjectNode request) throws IOException {
+        write(request);
+        return read();
+    }
+
+    /**
+     * 只发送请求，不等待响应。带 id 的请求可以连续发送，响应中带回相同的 id，顺序可能与请求不同。
+     * 可以由多个线程同时调用。
+     *
+     * @param request 请求
+     * @throws IOException 连接异常
+     */
+    public void write(ObjectNode request) throws IOException {
+        write(encode(request));
+    }
+
+    /**
+     * 按连接使用的协议编码请求，不涉及网络
+     *
+     * @param request 请求
+     * @return 可以交给 {@link #write(byte[])} 的帧
+     * @throws IOException 二进制协议不支持该请求（未知操作或字符串过长）
+     */
+    public byte[] encode(ObjectNode request) throws IOException {
+        if (binary) {
+            return BinaryProtocol.encodeRequest(request);
+        }
+        return (request.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 发送已编码的帧，可以由多个线程同时调用
+     *
+     * @param frame {@link #encode(ObjectNode)} 的结果
+     * @throws IOException 连接异常
+     */
+    public void write(byte[] frame) throws IOException {
+        writeLock.lock();
+        try {
+            output.write(frame);
+            output.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 读取下一条响应，同一时间只能有一个线程读取
+     *
+     * @return 响应
+     * @throws IOException 连接异常或服务器关闭连接
+     */
+    public JsonNode read() throws IOException {
+        if (binary) {
+            return BinaryProtocol.readResponse(input, mapper);
+        }
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("服务器已关闭连接");
+        }
+        return mapper.readTree(line);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null && !socket.isClosed()) {
+            socket.close();
+        }
+    }
+}
@@ -1,25 +1,18 @@
 package com.harkerhand.frontend.ui;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.harkerhand.frontend.client.AsyncATMClient;
 import com.harkerhand.frontend.utils.ConsoleHelper;
 import com.harkerhand.frontend.utils.ConsoleHelper.AnsiColor;
 
-import java.io.BufferedReader;
 import java.io.Console;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 public class AuthUI {
-    private final BufferedReader in;
-    private final PrintWriter out;
-    private final ObjectMapper mapper;
+    private final AsyncATMClient client;
 
-    public AuthUI(BufferedReader in, PrintWriter out, ObjectMapper mapper) {
-        this.in = in;
-        this.out = out;
-        this.mapper = mapper;
+    public AuthUI(AsyncATMClient client) {
+        this.client = client;
     }
 
     /**
@@ -32,16 +25,9 @@ public class AuthUI {
         String username = ConsoleHelper.readNonEmptyString(console, "用户名: ");
         char[] password = ConsoleHelper.readNonEmptyPassword(console, "密码: ");
 
-        ObjectNode request = mapper.createObjectNode();
-        request.put("action", "register");
-        request.put("username", username);
-        request.put("password", new String(password));
-
-        out.println(request.toString());
-        String response = in.readLine();
+        JsonNode jsonResponse = AsyncATMClient.await(client.register(username, new String(password)));
 
         try {
-            JsonNode jsonResponse = mapper.readTree(response);
             boolean success = jsonResponse.path("status").asText().equals("success");
             String message = jsonResponse.path("message").asText();
 
@@ -52,7 +38,7 @@ public class AuthUI {
             }
             ConsoleHelper.waitForKeyPress(console);
         } catch (Exception e) {
-            System.out.println(ConsoleHelper.colorText("无法解析响应: " + response, AnsiColor.RED));
+            System.out.println(ConsoleHelper.colorText("无法解析响应: " + jsonResponse, AnsiColor.RED));
             ConsoleHelper.waitForKeyPress(console);
         }
     }
@@ -69,20 +55,14 @@ public class AuthUI {
         String username = ConsoleHelper.readNonEmptyString(console, "用户名: ");
         char[] password = ConsoleHelper.readNonEmptyPassword(console, "密码: ");
 
-        ObjectNode request = mapper.createObjectNode();
-        request.put("action", "login");
-        request.put("username", username);
-        request.put("password", new String(password));
-
-        out.println(request.toString());
-        String response = in.readLine();
+        JsonNode jsonResponse = AsyncATMClient.await(client.login(username, new String(password)));
 
         try {
-            JsonNode jsonResponse = mapper.readTree(response);
             boolean success = jsonResponse.path("status").asText().equals("success");
             String message = jsonResponse.path("message").asText();
 
             if (success) {
+                // 客户端记下了会话令牌，之后的请求都会带上
                 System.out.println(ConsoleHelper.colorText("登录成功: " + message, AnsiColor.GREEN));
                 return username;
             } else {
@@ -91,7 +71,7 @@ public class AuthUI {
                 return null;
             }
         } catch (Exception e) {
-            System.out.println(ConsoleHelper.colorText("无法解析响应: " + response, AnsiColor.RED));
+            System.out.println(ConsoleHelper.colorText("无法解析响应: " + jsonResponse, AnsiColor.RED));
             ConsoleHelper.waitForKeyPress(console);
             return null;
         }
@@ -1,25 +1,25 @@
 package com.harkerhand.frontend.ui;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.harkerhand.frontend.client.AsyncATMClient;
 import com.harkerhand.frontend.utils.ConsoleHelper;
 import com.harkerhand.frontend.utils.ConsoleHelper.AnsiColor;
 
-import java.io.BufferedReader;
 import java.io.Console;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
 
 public class UserUI {
-    private final BufferedReader in;
-    private final PrintWriter out;
-    private final ObjectMapper mapper;
-
-    public UserUI(BufferedReader in, PrintWriter out, ObjectMapper mapper) {
-        this.in = in;
-        this.out = out;
-        this.mapper = mapper;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final AsyncATMClient client;
+
+    public UserUI(AsyncATMClient client) {
+        this.client = client;
     }
 
     /**
@@ -33,19 +33,17 @@ public class UserUI {
             System.out.println("2. 存款");
             System.out.println("3. 取款");
             System.out.println("4. 修改密码");
-            System.out.println("5. 登出");
+            System.out.println("5. 最近交易");
+            System.out.println("6. 登出");
             System.out.print(ConsoleHelper.colorText("请选择: ", AnsiColor.YELLOW));
 
             String choice = console.readLine();
-            ObjectNode request = mapper.createObjectNode();
-            request.put("username", username);
 
             switch (choice) {
                 case "1":
                     ConsoleHelper.clearScreen();
                     System.out.println(ConsoleHelper.colorText("=== 查询余额 ===", AnsiColor.BLUE));
-                    request.put("action", "query");
-                    sendRequestAndPrintResponse(request, console);
+                    sendRequestAndPrintResponse("query", client.query(username), console);
                     break;
                 case "2":
                     ConsoleHelper.clearScreen();
@@ -53,9 +51,7 @@ public class UserUI {
                     System.out.print("存款金额: ");
                     try {
                         double amount = Double.parseDouble(console.readLine());
-                        request.put("action", "deposit");
-                        request.put("amount", amount);
-                        sendRequestAndPrintResponse(request, console);
+                        sendRequestAndPrintResponse("deposit", client.deposit(username, amount), console);
                     } catch (NumberFormatException e) {
                         System.out.println(ConsoleHelper.colorText("错误: 请输入有效金额", AnsiColor.RED));
                         ConsoleHelper.waitForKeyPress(console);
@@ -67,9 +63,7 @@ public class UserUI {
                     System.out.print("取款金额: ");
                     try {
                         double amount = Double.parseDouble(console.readLine());
-                        request.put("action", "withdraw");
-                        request.put("amount", amount);
-                        sendRequestAndPrintResponse(request, console);
+                        sendRequestAndPrintResponse("withdraw", client.withdraw(username, amount), console);
                     } catch (NumberFormatException e) {
                         System.out.println(ConsoleHelper.colorText("错误: 请输入有效金额", AnsiColor.RED));
                         ConsoleHelper.waitForKeyPress(console);
@@ -79,8 +73,12 @@ public class UserUI {
                     changePassword(console, username);
                     break;
                 case "5":
-                    request.put("action", "logout");
-                    out.println(request.toString());
+                    ConsoleHelper.clearScreen();
+                    System.out.println(ConsoleHelper.colorText("=== 最近交易 ===", AnsiColor.BLUE));
+                    sendRequestAndPrintResponse("statement", client.statement(username, 0), console);
+                    break;
+                case "6":
+                    AsyncATMClient.await(client.logout(username));
                     System.out.println(ConsoleHelper.colorText("您已成功登出", AnsiColor.GREEN));
                     ConsoleHelper.waitForKeyPress(console);
                     return;
@@ -103,12 +101,8 @@ public class UserUI {
         char[] confirmPassword = ConsoleHelper.readNonEmptyPassword(console, "请再次输入新密码: ");
 
         if (new String(newPassword).equals(new String(confirmPassword))) {
-            ObjectNode request = mapper.createObjectNode();
-            request.put("action", "change_password");
-            request.put("username", username);
-            request.put("oldPassword", new String(oldPassword));
-            request.put("newPassword", new String(newPassword));
-            sendRequestAndPrintResponse(request, console);
+            sendRequestAndPrintResponse("change_password",
+                    client.changePassword(username, new String(oldPassword), new String(newPassword)), console);
         } else {
             System.out.println(ConsoleHelper.colorText("错误: 两次输入的新密码不一致", AnsiColor.RED));
             ConsoleHelper.waitForKeyPress(console);
@@ -116,22 +110,42 @@ public class UserUI {
     }
 
     /**
-     * 发送请求并处理响应
+     * 打印迷你对账单：最近的交易（从新到旧）和当前余额
+     */
+    private void printStatement(JsonNode response) {
+        JsonNode results = response.path("results");
+        if (results.isEmpty()) {
+            System.out.println("暂无交易记录");
+        }
+        for (JsonNode entry : results) {
+            String action = entry.path("action").asText();
+            String actionName = "deposit".equals(action) ? "存款" : "withdraw".equals(action) ? "取款" : "利息";
+            String time = TIME_FORMAT.format(Instant.ofEpochMilli(entry.path("time").asLong()));
+            System.out.println(time + "  " + actionName + "  " + String.format("%.2f", entry.path("amount").asDouble())
+                    + " 元");
+        }
+        double balance = response.path("balance").asDouble();
+        System.out.println(
+                ConsoleHelper.colorText("当前余额: " + String.format("%.2f", balance) + " 元", AnsiColor.GREEN));
+    }
+
+    /**
+     * 等待响应并打印结果
      */
-    private void sendRequestAndPrintResponse(ObjectNode request, Console console) throws IOException {
-        out.println(request.toString());
-        String response = in.readLine();
+    private void sendRequestAndPrintResponse(String action, CompletableFuture<JsonNode> response, Console console)
+            throws IOException {
+        JsonNode jsonResponse = AsyncATMClient.await(response);
 
         try {
-            JsonNode jsonResponse = mapper.readTree(response);
             boolean success = jsonResponse.path("status").asText().equals("success");
 
             if (success) {
                 System.out.println(ConsoleHelper.colorText("操作成功", AnsiColor.GREEN));
 
                 // 根据不同的操作打印不同的信息
-                String action = request.path("action").asText();
-                if ("query".equals(action)) {
+                if ("statement".equals(action)) {
+                    printStatement(jsonResponse);
+                } else if ("query".equals(action)) {
                     double balance = jsonResponse.path("balance").asDouble();
                     System.out.println(
                             ConsoleHelper.colorText("当前余额: " + String.format("%.2f", balance) + " 元", AnsiColor.GREEN));
@@ -157,7 +171,7 @@ public class UserUI {
 
             ConsoleHelper.waitForKeyPress(console);
         } catch (Exception e) {
-            System.out.println(ConsoleHelper.colorText("无法解析响应: " + response, AnsiColor.RED));
+            System.out.println(ConsoleHelper.colorText("无法解析响应: " + jsonResponse, AnsiColor.RED));
             ConsoleHelper.waitForKeyPress(console);
         }
     }
@@ -0,0 +1,33 @@
+package com.harkerhand.backend.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PBKDF2-HMAC-SHA256 的已知结果，账户文件中已有的哈希依赖这些结果保持不变
+ */
+class PasswordServiceTest {
+    private static final byte[] SALT = "salt".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void matchesPublishedVectors() {
+        // RFC 7914 第 11 节，取前 32 字节
+        assertEquals("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc", hex("passwd", 1));
+        assertEquals("120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b", hex("password", 1));
+        assertEquals("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a", hex("password", 4096));
+    }
+
+    @Test
+    void encodesPasswordAsUtf8() {
+        assertEquals("46abd72b29d6afb02631229d915cf00adabc345fb36f9fe2fd89f26ccb4f4482", hex("密码é😀", 3));
+        assertEquals("5ddf839afa2d5fb4be56e1a0f48917617559bef61ec122bfca1c7f75ac8f401d", hex("", 3));
+    }
+
+    private static String hex(String password, int iterations) {
+        return HexFormat.of().formatHex(PasswordService.compute(password, SALT, iterations));
+    }
+}
@@ -0,0 +1,131 @@
+package com.harkerhand.backend.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 检查点与日志回放的组合：加载快照、回放其后的分段，余额应与写检查点时内存中的状态一致
+ */
+class CheckpointReplayTest {
+    private static final byte[] SALT = new byte[AccountTable.SALT_BYTES];
+    private static final byte[] HASH = new byte[AccountTable.HASH_BYTES];
+
+    @TempDir
+    Path directory;
+
+    private UserJournal journal;
+
+    @BeforeEach
+    void openJournal() throws IOException {
+        journal = new UserJournal(directory.resolve("journal"), new FsyncPolicy(FsyncPolicy.Mode.NONE, 0, 1));
+        journal.open(0);
+    }
+
+    @AfterEach
+    void closeJournal() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    void depositAfterSnapshotIsReplayedOnce() throws IOException {
+        AccountTable accounts = new AccountTable();
+        int slot = accounts.insert("alice", SALT, HASH, 0, 10_000, 0, 0);
+
+        long segment = journal.rotate();
+        AccountFile.write(directory.resolve("accounts.db"), accounts, segment);
+        deposit(accounts, slot, 500);
+        tick(accounts, 1, Math.log1p(0.1));
+
+        assertEquals(accounts.accrue(slot), restart().get("alice"));
+    }
+
+    @Test
+    void interestTickWaitsForSnapshot() throws Exception {
+        AccountTable accounts = new AccountTable();
+        int slot = accounts.insert("alice", SALT, HASH, 0, 10_000, 0, 0);
+        ReentrantLock interestLock = new ReentrantLock();
+
+        // 持有账户锁，让快照停在写这个账户的记录之前
+        ReentrantLock accountLock = AccountLocks.forUser("alice");
+        CompletableFuture<AccountFile.Snapshot> checkpoint;
+        CompletableFuture<Void> interest;
+        accountLock.lock();
+        try {
+            checkpoint = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return UserStorage.snapshot(directory.resolve("accounts.db"), accounts, journal, interestLock);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            awaitQueued(accountLock);
+            assertFalse(interestLock.tryLock());
+
+            interest = CompletableFuture.runAsync(() -> {
+                interestLock.lock();
+                try {
+                    tick(accounts, 1, Math.log1p(0.1));
+                } finally {
+                    interestLock.unlock();
+                }
+            });
+            awaitQueued(interestLock);
+            assertEquals(0L, accounts.accrualEpoch());
+        } finally {
+            accountLock.unlock();
+        }
+        checkpoint.join();
+        interest.join();
+        deposit(accounts, slot, 500);
+
+        assertEquals(accounts.accrue(slot), restart().get("alice"));
+    }
+
+    private static void awaitQueued(ReentrantLock lock) throws InterruptedException {
+        while (!lock.hasQueuedThreads()) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void deposit(AccountTable accounts, int slot, long cents) {
+        long balance = accounts.accrue(slot) + cents;
+        double accrual = accounts.accrual(slot);
+        int version = accounts.changeBalance(slot, balance, accrual);
+        UserJournal.await(journal.appendBalance(accounts.username(slot), balance, accrual, version));
+    }
+
+    private void tick(AccountTable accounts, long epoch, double index) {
+        UserJournal.await(journal.appendInterest(epoch, index));
+        accounts.setAccrualIndex(index, epoch);
+    }
+
+    /**
+     * 关闭日志，按启动流程加载快照并回放
+     *
+     * @return 各账户计息到当前指数后的余额
+     */
+    private Map<String, Long> restart() throws IOException {
+        journal.close();
+        AccountTable loaded = new AccountTable();
+        AccountFile.Snapshot snapshot = AccountFile.read(directory.resolve("accounts.db"), loaded);
+        journal.replay(loaded, snapshot.journalSegment);
+        Map<String, Long> balances = new HashMap<>();
+        for (int slot = 0; slot < loaded.size(); slot++) {
+            balances.put(loaded.username(slot), loaded.accrue(slot));
+        }
+        return balances;
+    }
+}
@@ -0,0 +1,46 @@
+package com.harkerhand.backend.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 写入失败之后日志拒绝一切新的记录和控制操作
+ */
+class JournalWriterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void failureIsPermanent() throws Exception {
+        FileChannel channel = FileChannel.open(directory.resolve("users-000001.log"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        JournalWriter writer = new JournalWriter(channel, new FsyncPolicy(FsyncPolicy.Mode.REQUEST, 0, 1));
+        try {
+            UserJournal.await(writer.submit(UserJournal.encodeInterest(1, 0.1)));
+            assertFalse(writer.failed());
+
+            // 关闭的通道让下一次写入抛出 IOException
+            channel.close();
+            CompletableFuture<Void> lost = writer.submit(UserJournal.encodeInterest(2, 0.2));
+            assertThrows(UncheckedIOException.class, () -> UserJournal.await(lost));
+            assertTrue(writer.failed());
+
+            assertThrows(UncheckedIOException.class,
+                    () -> UserJournal.await(writer.submit(UserJournal.encodeInterest(3, 0.3))));
+            assertThrows(UncheckedIOException.class, () -> UserJournal.await(writer.execute(w -> {
+            })));
+        } finally {
+            writer.close();
+        }
+    }
+}